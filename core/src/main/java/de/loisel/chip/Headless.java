@@ -0,0 +1,106 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip;
+
+import de.loisel.chip.emulator.FrameBuffer;
+import de.loisel.chip.emulator.Keyboard;
+import de.loisel.chip.emulator.LoChip;
+import de.loisel.chip.emulator.Program;
+import de.loisel.chip.emulator.Registers;
+import de.loisel.chip.emulator.RunResult;
+import de.loisel.chip.emulator.Watchdog;
+
+/**
+ * Runs a ROM without the UI and prints how the run ended.
+ * The exit status is 0 for $AA EXIT, 1 for a fault, 3 for a hang and 2 otherwise.
+ */
+public class Headless {
+    private static final String USAGE = "Usage: Headless [--budget n] [--virtual-time instructionsPerTick] "
+            + "[--watchdog threshold] <rom>";
+
+    public static void main(String[] args) {
+        long budget = Long.MAX_VALUE;
+        long instructionsPerTick = 0;
+        int hangThreshold = 0;
+        String rom = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--budget" -> budget = Long.parseLong(value(args, ++i));
+                case "--virtual-time" -> instructionsPerTick = Long.parseLong(value(args, ++i));
+                case "--watchdog" -> hangThreshold = Integer.parseInt(value(args, ++i));
+                default -> rom = args[i];
+            }
+        }
+        if (rom == null) {
+            throw new RuntimeException(USAGE);
+        }
+
+        LoChip chip = new LoChip(new Program(rom), new FrameBuffer(256, 144), new Keyboard());
+        chip.setVerbose(false);
+        if (instructionsPerTick > 0) {
+            chip.setVirtualTime(instructionsPerTick);
+            // nobody can press a key, keep the clock running for the budget and watchdog
+            chip.setKeyWaitPolling(true);
+        }
+        Watchdog watchdog = null;
+        if (hangThreshold > 0) {
+            watchdog = new Watchdog(1, hangThreshold);
+            chip.setWatchdog(watchdog);
+        }
+
+        RunResult result = chip.runFor(budget);
+        System.out.println(report(result, chip.getRegisters()));
+        if (watchdog != null && watchdog.getVerdict() != null)
+            System.out.println(watchdog.getVerdict());
+
+        System.exit(switch (result.reason()) {
+            case EXIT -> 0;
+            case FAULT -> 1;
+            case HUNG -> 3;
+            default -> 2;
+        });
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length)
+            throw new RuntimeException(USAGE);
+        return args[i];
+    }
+
+    /**
+     * Built by hand, string concatenation and record toString would
+     * bootstrap method handles and double the startup time.
+     */
+    private static String report(RunResult result, Registers regs) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(result.reason().name()).append(" after ")
+                .append(result.instructions()).append(" instructions\n");
+        if (result.fault() != null)
+            sb.append("illegal opcode ").append(Integer.toHexString(result.fault().opcode()))
+                    .append(" at ").append(Integer.toHexString(Short.toUnsignedInt(result.fault().address())))
+                    .append('\n');
+        sb.append("Rx=").append(Byte.toUnsignedInt(regs.rX()))
+                .append(" Ry=").append(Byte.toUnsignedInt(regs.rY()))
+                .append(" f=").append(regs.f())
+                .append(" PC=").append(Integer.toHexString(Short.toUnsignedInt(regs.programCounter())))
+                .append(" I=").append(Integer.toHexString(Short.toUnsignedInt(regs.indexReg())))
+                .append(" DT=").append(regs.delayTimer())
+                .append(" ST=").append(regs.soundTimer())
+                .append(" SP=").append(regs.stackPointer());
+        return sb.toString();
+    }
+}
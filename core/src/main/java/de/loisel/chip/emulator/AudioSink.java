@@ -0,0 +1,36 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * Destination for the PCM samples produced by {@link ChipAudio}.
+ */
+public interface AudioSink {
+
+    void open(AudioFormat format, int bufferSize) throws LineUnavailableException;
+
+    /**
+     * Writes {@code length} bytes of the buffer. May block until the
+     * device has room for them, which paces the audio thread.
+     */
+    void write(byte[] buffer, int length);
+
+    void close();
+}
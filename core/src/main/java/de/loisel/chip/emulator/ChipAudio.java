@@ -0,0 +1,110 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import java.util.Arrays;
+
+/**
+ * Square wave buzzer. Renders the tone in chunks of one latency period
+ * into a preallocated buffer, so the time between the sound timer
+ * switching and the speaker following it is at most the latency.
+ */
+public class ChipAudio implements Runnable {
+    public static final float SAMPLE_RATE = 44100F;
+    public static final int DEFAULT_LATENCY_MILLIS = 20;
+    public static final int DEFAULT_FREQUENCY = 440;
+
+    private static final byte AMPLITUDE = 24;
+
+    private final LoChip loChip;
+    private final AudioSink sink;
+    private final AudioFormat format;
+    private final byte[] buffer;
+    private final int halfPeriod;
+
+    private int phase = 0;
+    private volatile boolean running;
+
+    public ChipAudio(LoChip loChip, AudioSink sink, int latencyMillis, int frequency) {
+        if (latencyMillis <= 0 || frequency <= 0)
+            throw new IllegalArgumentException("latency and frequency must be positive");
+        this.loChip = loChip;
+        this.sink = sink;
+        this.format = new AudioFormat(SAMPLE_RATE, 8, 1, true, false);
+        this.buffer = new byte[Math.max(1, (int) (SAMPLE_RATE * latencyMillis / 1000))];
+        this.halfPeriod = Math.max(1, (int) (SAMPLE_RATE / frequency / 2));
+    }
+
+    public ChipAudio(LoChip loChip, AudioSink sink) {
+        this(loChip, sink, DEFAULT_LATENCY_MILLIS, DEFAULT_FREQUENCY);
+    }
+
+    public ChipAudio(LoChip loChip) {
+        this(loChip, new LineAudioSink());
+    }
+
+    @Override
+    public void run() {
+        try {
+            sink.open(format, buffer.length * 2);
+        } catch (LineUnavailableException e) {
+            e.printStackTrace();
+            return;
+        }
+        running = true;
+        try {
+            while (running && !Thread.currentThread().isInterrupted())
+                render();
+        } finally {
+            sink.close();
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Renders one chunk of samples and hands it to the sink.
+     * @return true if the chunk contained the tone
+     */
+    public boolean render() {
+        boolean on = loChip.isSound();
+        if (on) {
+            for (int i = 0; i < buffer.length; i++) {
+                buffer[i] = phase < halfPeriod ? AMPLITUDE : -AMPLITUDE;
+                if (++phase == 2 * halfPeriod)
+                    phase = 0;
+            }
+        } else {
+            Arrays.fill(buffer, (byte) 0);
+            phase = 0;
+        }
+        sink.write(buffer, buffer.length);
+        return on;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public int getBufferSize() {
+        return buffer.length;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+/**
+ * Base class of the classes generated by {@link Recompiler}.
+ * <p>
+ * A compiled ROM holds a copy of the registers that its blocks work on.
+ * {@link LoChip} copies them back and forth whenever it has to interpret
+ * an instruction itself: for jumps to addresses without a block, $F2,
+ * $AA, unknown opcodes and blocks that would cross a timer tick or the
+ * end of the budget.
+ * <p>
+ * The blocks assume that the program does not modify its own code.
+ */
+public abstract class CompiledRom {
+    protected byte rX;
+    protected byte rY;
+    protected boolean f;
+    protected short programCounter;
+    protected short indexReg;
+    protected int delayTimer;
+    protected int soundTimer;
+
+    protected Memory memory;
+    protected Stack stack;
+    protected FrameBuffer frameBuffer;
+    protected Keyboard keyboard;
+    protected final byte[] sprite = new byte[0x100];
+
+    LoChip chip;
+    long untilTick;
+    long remain;
+    long executed;
+
+    /**
+     * Runs the chip with this ROM's blocks in virtual time.
+     * The chip must have the same program loaded.
+     * @param instructions the max number of executed instructions
+     * @throws IllegalStateException if the chip runs in real time
+     */
+    public RunResult run(LoChip chip, long instructions) {
+        return chip.runCompiled(this, instructions);
+    }
+
+    /**
+     * Executes the block starting at the address and sets the program
+     * counter to the next instruction.
+     * @return false if there is no block at the address or it does not
+     * fit, nothing was executed then
+     */
+    protected abstract boolean execute(int address);
+
+    /**
+     * Counts the instructions of a block as executed.
+     * @return false if the block would cross a timer tick or the end of the budget
+     */
+    protected final boolean enter(int length) {
+        if (length > untilTick || length > remain)
+            return false;
+        untilTick -= length;
+        remain -= length;
+        executed += length;
+        return true;
+    }
+
+    protected final int random() {
+        chip.randomDraws++;
+        return chip.rand.nextInt();
+    }
+
+    protected final void setSoundTimer(int value) {
+        soundTimer = value;
+        chip.setSound(value > 0);
+    }
+
+    void tick() {
+        if (delayTimer > 0)
+            delayTimer--;
+        if (soundTimer > 0) {
+            soundTimer--;
+            chip.setSound(soundTimer > 0);
+        }
+        chip.publishFrame();
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Guest level debugger of a {@link LoChip}.
+ * <p>
+ * Breakpoints and watchpoints are kept in bitmaps over the 64 KiB address
+ * space. The chip only runs its checked loop while the debugger has
+ * something to check, otherwise it runs the normal loop. The loop is
+ * chosen when {@link LoChip#run(long)} starts, so breakpoints should be
+ * changed while the chip is stopped.
+ */
+public class Debugger implements Memory.AccessWatcher {
+
+    public enum StopReason {
+        BREAKPOINT,
+        WATCHPOINT,
+        CONDITION,
+        STEP,
+        ILLEGAL_OPCODE
+    }
+
+    private static final int BITMAP_SIZE = Memory.MEMORY_SIZE / 64;
+
+    private final LoChip chip;
+    private final Memory memory;
+
+    private final long[] breakpoints = new long[BITMAP_SIZE];
+    private final long[] readWatch = new long[BITMAP_SIZE];
+    private final long[] writeWatch = new long[BITMAP_SIZE];
+    private final Map<Integer, Predicate<Registers>> breakConditions = new HashMap<>();
+    private final List<Predicate<Registers>> conditions = new ArrayList<>();
+    private int breakpointCount = 0;
+    private int watchpointCount = 0;
+
+    private int stepOverAddress = -1;
+    private int stepOverStackPointer;
+    private int resumeAddress = -1;
+
+    private boolean watchHit;
+    private StopReason stopReason;
+    private int stopAddress = -1;
+    private Runnable onStop;
+
+    Debugger(LoChip chip, Memory memory) {
+        this.chip = chip;
+        this.memory = memory;
+    }
+
+    public void addBreakpoint(short address) {
+        int addr = Short.toUnsignedInt(address);
+        if (!isSet(breakpoints, addr)) {
+            breakpoints[addr >>> 6] |= 1L << addr;
+            breakpointCount++;
+        }
+    }
+
+    /**
+     * Breakpoint that only stops if the condition holds for the registers.
+     */
+    public void addBreakpoint(short address, Predicate<Registers> condition) {
+        addBreakpoint(address);
+        breakConditions.put(Short.toUnsignedInt(address), condition);
+    }
+
+    public void removeBreakpoint(short address) {
+        int addr = Short.toUnsignedInt(address);
+        if (isSet(breakpoints, addr)) {
+            breakpoints[addr >>> 6] &= ~(1L << addr);
+            breakpointCount--;
+        }
+        breakConditions.remove(addr);
+    }
+
+    public boolean hasBreakpoint(short address) {
+        return isSet(breakpoints, Short.toUnsignedInt(address));
+    }
+
+    /**
+     * Stops before any instruction for which the condition holds.
+     */
+    public void addCondition(Predicate<Registers> condition) {
+        conditions.add(condition);
+    }
+
+    public void removeCondition(Predicate<Registers> condition) {
+        conditions.remove(condition);
+    }
+
+    public void addWatchpoint(short address, boolean read, boolean write) {
+        int addr = Short.toUnsignedInt(address);
+        removeWatchpoint(address);
+        if (read)
+            readWatch[addr >>> 6] |= 1L << addr;
+        if (write)
+            writeWatch[addr >>> 6] |= 1L << addr;
+        if (read || write)
+            watchpointCount++;
+        memory.setWatcher(watchpointCount > 0 ? this : null);
+    }
+
+    public void removeWatchpoint(short address) {
+        int addr = Short.toUnsignedInt(address);
+        if (isSet(readWatch, addr) || isSet(writeWatch, addr))
+            watchpointCount--;
+        readWatch[addr >>> 6] &= ~(1L << addr);
+        writeWatch[addr >>> 6] &= ~(1L << addr);
+        memory.setWatcher(watchpointCount > 0 ? this : null);
+    }
+
+    public void clear() {
+        for (int i = 0; i < BITMAP_SIZE; i++) {
+            breakpoints[i] = 0;
+            readWatch[i] = 0;
+            writeWatch[i] = 0;
+        }
+        breakConditions.clear();
+        conditions.clear();
+        breakpointCount = 0;
+        watchpointCount = 0;
+        memory.setWatcher(null);
+    }
+
+    /**
+     * Called on the chip thread whenever the debugger stops the chip.
+     */
+    public void setOnStop(Runnable onStop) {
+        this.onStop = onStop;
+    }
+
+    /**
+     * Executes the next instruction.
+     */
+    public void step() {
+        chip.step();
+        stop(StopReason.STEP, chip.getProgramCounter());
+    }
+
+    /**
+     * Executes the next instruction. A $20 CALL is executed until the
+     * subroutine returned, a breakpoint hit or the budget ran out.
+     */
+    public void stepOver(long instructions) {
+        int pc = Short.toUnsignedInt(chip.getProgramCounter());
+        if (Byte.toUnsignedInt(memory.fetchCode((short) pc)) != 0x20) {
+            step();
+            return;
+        }
+        stepOverAddress = (pc + 3) & 0xFFFF;
+        stepOverStackPointer = chip.getRegisters().stackPointer();
+        chip.run(instructions);
+        stepOverAddress = -1;
+    }
+
+    public StopReason getStopReason() {
+        return stopReason;
+    }
+
+    /**
+     * @return the program counter for breakpoints and steps, the accessed
+     * address for watchpoints
+     */
+    public short getStopAddress() {
+        return (short) stopAddress;
+    }
+
+    boolean isActive() {
+        return breakpointCount > 0 || watchpointCount > 0
+                || !conditions.isEmpty() || stepOverAddress >= 0;
+    }
+
+    /**
+     * Checked before every instruction by the checked loop.
+     * @return true if the chip has to stop before executing the instruction
+     */
+    boolean shouldStop(short programCounter) {
+        int pc = Short.toUnsignedInt(programCounter);
+        // only the first instruction of a run continues from the stop
+        boolean resuming = pc == resumeAddress;
+        resumeAddress = -1;
+        if (resuming)
+            return false;
+        if (isSet(breakpoints, pc)) {
+            Predicate<Registers> condition = breakConditions.get(pc);
+            if (condition == null || condition.test(chip.getRegisters()))
+                return stop(StopReason.BREAKPOINT, pc);
+        }
+        if (pc == stepOverAddress && chip.getRegisters().stackPointer() == stepOverStackPointer)
+            return stop(StopReason.STEP, pc);
+        if (!conditions.isEmpty()) {
+            Registers regs = chip.getRegisters();
+            for (Predicate<Registers> condition : conditions) {
+                if (condition.test(regs))
+                    return stop(StopReason.CONDITION, pc);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called when a run ends. A run that did not stop at the resume address
+     * moved on, so its next run must not skip a breakpoint there.
+     */
+    void runEnded(short programCounter) {
+        if (Short.toUnsignedInt(programCounter) != resumeAddress)
+            resumeAddress = -1;
+    }
+
+    /**
+     * Checked after every instruction by the checked loop.
+     * @return true if the instruction hit a watchpoint
+     */
+    boolean takeWatchHit() {
+        if (!watchHit)
+            return false;
+        watchHit = false;
+        resumeAddress = -1;
+        stop(StopReason.WATCHPOINT, stopAddress);
+        return true;
+    }
+
+    /**
+     * Called by the chip for an illegal opcode under {@link IllegalOpcodePolicy#TRAP}.
+     */
+    void trap(short address) {
+        stop(StopReason.ILLEGAL_OPCODE, address);
+    }
+
+    @Override
+    public void onRead(int address) {
+        if (isSet(readWatch, address))
+            watch(address);
+    }
+
+    @Override
+    public void onWrite(int address) {
+        if (isSet(writeWatch, address))
+            watch(address);
+    }
+
+    private void watch(int address) {
+        watchHit = true;
+        stopAddress = address;
+    }
+
+    private boolean stop(StopReason reason, int address) {
+        stopReason = reason;
+        stopAddress = address;
+        if (reason != StopReason.WATCHPOINT)
+            resumeAddress = address;
+        if (onStop != null)
+            onStop.run();
+        return true;
+    }
+
+    private boolean stop(StopReason reason, short address) {
+        return stop(reason, Short.toUnsignedInt(address));
+    }
+
+    private static boolean isSet(long[] bitmap, int address) {
+        return (bitmap[address >>> 6] & (1L << address)) != 0;
+    }
+}
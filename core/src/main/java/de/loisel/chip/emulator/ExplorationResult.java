@@ -0,0 +1,104 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import java.util.List;
+
+/**
+ * Outcome of {@link Explorer#explore()}.
+ */
+public class ExplorationResult {
+
+    /**
+     * @param fault the illegal opcode, or null if the chip threw
+     * @param error the exception thrown by the chip, or null
+     * @param keys the key held during each frame, -1 for none
+     */
+    public record FaultTrace(Fault fault, RuntimeException error, int[] keys) {
+    }
+
+    private final long[] coverage;
+    private final long states;
+    private final long frames;
+    private final long exits;
+    private final boolean complete;
+    private final List<FaultTrace> faults;
+
+    ExplorationResult(long[] coverage, long states, long frames, long exits,
+                      boolean complete, List<FaultTrace> faults) {
+        this.coverage = coverage;
+        this.states = states;
+        this.frames = frames;
+        this.exits = exits;
+        this.complete = complete;
+        this.faults = faults;
+    }
+
+    public boolean isCovered(short address) {
+        int addr = Short.toUnsignedInt(address);
+        return (coverage[addr >>> 6] & (1L << addr)) != 0;
+    }
+
+    /**
+     * @return the number of distinct addresses an instruction was executed at
+     */
+    public int coveredCount() {
+        int count = 0;
+        for (long word : coverage)
+            count += Long.bitCount(word);
+        return count;
+    }
+
+    /**
+     * @return bit {@code pc % 64} of word {@code pc / 64} is set for every executed address
+     */
+    public long[] getCoverage() {
+        return coverage.clone();
+    }
+
+    /**
+     * @return the number of distinct machine states reached
+     */
+    public long getStates() {
+        return states;
+    }
+
+    /**
+     * @return the number of frames executed, including ones that led to known states
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return the number of frames that ended with $AA EXIT
+     */
+    public long getExits() {
+        return exits;
+    }
+
+    /**
+     * @return false if the depth or state limit cut the search short
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public List<FaultTrace> getFaults() {
+        return faults;
+    }
+}
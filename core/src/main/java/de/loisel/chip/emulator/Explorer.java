@@ -0,0 +1,179 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Explores the states a program can reach with every key input.
+ * <p>
+ * Starting from the loaded program, every frame is run once per input:
+ * no key or one of the 16 keys held for the whole frame. The state after
+ * the frame is hashed with {@link LoChip#stateHash()} and only snapshotted
+ * and explored further if it was not seen before.
+ * Frames run in virtual time with one timer tick per frame, and $C0 RND
+ * is seeded from the state, so the search is deterministic.
+ * <p>
+ * The frontier is spread across a work-stealing pool, each worker thread
+ * has its own chip.
+ */
+public class Explorer {
+    private static final int INPUTS = 17;
+
+    private final Program program;
+    private final int width;
+    private final int height;
+    private final long instructionsPerFrame;
+    private final int maxDepth;
+    private final long maxStates;
+    private final ForkJoinPool pool;
+
+    private final Set<Long> visited = ConcurrentHashMap.newKeySet();
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong exits = new AtomicLong();
+    private final Queue<ExplorationResult.FaultTrace> faults = new ConcurrentLinkedQueue<>();
+    private final Queue<Worker> workers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Worker> worker = ThreadLocal.withInitial(this::newWorker);
+    private volatile boolean truncated;
+
+    /**
+     * @param maxDepth the max number of frames of an input trace
+     * @param maxStates stop exploring after this many distinct states
+     */
+    public Explorer(Program program, int width, int height, long instructionsPerFrame,
+                    int maxDepth, long maxStates, ForkJoinPool pool) {
+        this.program = program;
+        this.width = width;
+        this.height = height;
+        this.instructionsPerFrame = instructionsPerFrame;
+        this.maxDepth = maxDepth;
+        this.maxStates = maxStates;
+        this.pool = pool;
+    }
+
+    public Explorer(Program program, int maxDepth) {
+        this(program, 256, 144, 10000, maxDepth, 1_000_000, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Runs the search. An explorer can only be used once.
+     */
+    public ExplorationResult explore() {
+        Snapshot start = newWorker().chip.snapshot();
+        visited.add(start.stateHash());
+        pool.invoke(new ExploreTask(null, start, 0));
+
+        long[] coverage = new long[Memory.MEMORY_SIZE / 64];
+        for (Worker w : workers) {
+            for (int i = 0; i < coverage.length; i++)
+                coverage[i] |= w.coverage[i];
+        }
+        return new ExplorationResult(coverage, visited.size(), frames.get(), exits.get(),
+                !truncated, new ArrayList<>(faults));
+    }
+
+    private Worker newWorker() {
+        Worker w = new Worker();
+        workers.add(w);
+        return w;
+    }
+
+    private class Worker {
+        final FrameBuffer frameBuffer = new FrameBuffer(width, height);
+        final Keyboard keyboard = new Keyboard();
+        final LoChip chip = new LoChip(program, frameBuffer, keyboard);
+        final long[] coverage = new long[Memory.MEMORY_SIZE / 64];
+
+        Worker() {
+            chip.setVerbose(false);
+            chip.setVirtualTime(instructionsPerFrame);
+            chip.setKeyWaitPolling(true);
+            chip.setIllegalOpcodePolicy(IllegalOpcodePolicy.HALT);
+            chip.setCoverage(coverage);
+        }
+    }
+
+    /** Input trace as a linked list from the last frame back to the start. */
+    private record Trace(Trace previous, int key, int length) {
+        int[] toArray() {
+            int[] keys = new int[length];
+            for (Trace t = this; t != null; t = t.previous)
+                keys[t.length - 1] = t.key;
+            return keys;
+        }
+    }
+
+    private class ExploreTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Trace trace;
+        private final Snapshot state;
+        private final int depth;
+
+        ExploreTask(Trace trace, Snapshot state, int depth) {
+            this.trace = trace;
+            this.state = state;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            Worker w = worker.get();
+            List<ExploreTask> next = new ArrayList<>();
+            for (int key = -1; key < INPUTS - 1; key++) {
+                Trace path = new Trace(trace, key, depth + 1);
+                w.chip.restore(state);
+                w.keyboard.setMask(key < 0 ? 0 : 1 << key);
+                w.chip.rand.setSeed(state.stateHash() + key);
+                frames.incrementAndGet();
+
+                RunResult result;
+                try {
+                    result = w.chip.runFor(instructionsPerFrame);
+                } catch (RuntimeException e) {
+                    faults.add(new ExplorationResult.FaultTrace(null, e, path.toArray()));
+                    continue;
+                }
+                if (result.reason() == RunResult.Reason.FAULT) {
+                    faults.add(new ExplorationResult.FaultTrace(result.fault(), null, path.toArray()));
+                    continue;
+                }
+                if (result.reason() == RunResult.Reason.EXIT) {
+                    exits.incrementAndGet();
+                    continue;
+                }
+
+                if (!visited.add(w.chip.stateHash()))
+                    continue;
+                if (depth + 1 >= maxDepth || visited.size() >= maxStates) {
+                    truncated = true;
+                    continue;
+                }
+                next.add(new ExploreTask(path, w.chip.snapshot(), depth + 1));
+            }
+            invokeAll(next);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+/**
+ * An illegal opcode that stopped the chip.
+ *
+ * @param address where the opcode was fetched
+ * @param opcode the unknown opcode
+ * @param cycle the number of instructions executed before it in this run
+ */
+public record Fault(short address, int opcode, long cycle) {
+
+    @Override
+    public String toString() {
+        return String.format("illegal opcode $%02X at %04X after %d instructions",
+                opcode, Short.toUnsignedInt(address), cycle);
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Monochrome display. Every row is stored as a bit set of longs,
+ * so sprites are blitted a whole row at a time.
+ */
+public class FrameBuffer {
+    private final int width;
+    private final int height;
+    private final int wordsPerRow;
+
+    /** bit x % 64 of rows[y * wordsPerRow + x / 64] is the pixel (x, y) */
+    private final long[] rows;
+    /** XOR of {@link StateHash#word} over rows, updated on every blit */
+    private long hash;
+
+    public FrameBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.wordsPerRow = (width + 63) / 64;
+        rows = new long[wordsPerRow * height];
+    }
+
+    public FrameBuffer() {
+        this(64, 32);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the number of bytes written by {@link #packBuffer(byte[])}
+     */
+    public int packedSize() {
+        return (width * height + 7) / 8;
+    }
+
+    /**
+     * Packs the pixels row by row with one bit per pixel,
+     * the leftmost pixel in the most significant bit.
+     */
+    public synchronized void packBuffer(byte[] dest) {
+        Arrays.fill(dest, 0, packedSize(), (byte) 0);
+        int bit = 0;
+        for(int h = 0; h < height; h++) {
+            for(int w = 0; w < width; w++) {
+                if(isSet(w, h))
+                    dest[bit >>> 3] |= 0x80 >>> (bit & 7);
+                bit++;
+            }
+        }
+    }
+
+    /**
+     * @return the number of longs written by {@link #copyTo(LongBuffer)}
+     */
+    public int wordCount() {
+        return rows.length;
+    }
+
+    /**
+     * Copies the raw rows: row y starts at word {@code y * ((width + 63) / 64)},
+     * pixel x is bit {@code x % 64} of word {@code x / 64} of its row.
+     */
+    public synchronized void copyTo(LongBuffer dest) {
+        dest.put(rows);
+    }
+
+    synchronized long[] copyRows() {
+        return rows.clone();
+    }
+
+    synchronized void restoreRows(long[] content, long contentHash) {
+        System.arraycopy(content, 0, rows, 0, rows.length);
+        hash = contentHash;
+    }
+
+    /**
+     * @return hash of the pixels, maintained incrementally
+     */
+    public synchronized long contentHash() {
+        return hash;
+    }
+
+    /**
+     * Flips the pixel.
+     * @return true if the pixel was set
+     */
+    public synchronized boolean setPixel(int x, int y) {
+        return blitRow(x, y, 1L);
+    }
+
+    /**
+     * Sets the pixel if color is not 0, otherwise clears it.
+     * @return true if the pixel was set
+     */
+    public synchronized boolean setPixel(int x, int y, byte color) {
+        boolean collision = isSet(x, y);
+        if(collision != (color != 0))
+            blitRow(x, y, 1L);
+        return collision;
+    }
+
+    public synchronized void clearBuffer() {
+        Arrays.fill(rows, 0L);
+        hash = 0;
+    }
+
+    public synchronized boolean[][] copyBuffer() {
+        boolean[][] buff = new boolean[width][height];
+        for(int w = 0; w < width; w++) {
+            for(int h = 0; h < height; h++) {
+                buff[w][h] = isSet(w, h);
+            }
+        }
+        return buff;
+    }
+
+    /**
+     * @return 0xFF for set pixels, 0 otherwise
+     */
+    public synchronized byte[][] copyBBuffer() {
+        byte[][] buff = new byte[width][height];
+        for(int w = 0; w < width; w++) {
+            for(int h = 0; h < height; h++) {
+                buff[w][h] = isSet(w, h) ? (byte) 0xFF : 0;
+            }
+        }
+        return buff;
+    }
+
+    /**
+     * returns true on pixel collision
+     */
+    public synchronized boolean setSprite(byte[] sprite, byte xCord, byte yCord) {
+        return setSprite(sprite, sprite.length, xCord, yCord);
+    }
+
+    /**
+     * Draws the first {@code length} bytes of the array as an 8 pixel wide sprite.
+     * returns true on pixel collision
+     */
+    public synchronized boolean setSprite(byte[] sprite, int length, byte xCord, byte yCord) {
+        int xC = Byte.toUnsignedInt(xCord) % width;
+        int yC = Byte.toUnsignedInt(yCord) % height;
+
+        boolean collision = false;
+        for (int i = 0; (i < length) && (yC + i < height); i++) {
+            // leftmost pixel is the most significant bit
+            long bits = Integer.reverse(sprite[i] & 0xFF) >>> 24;
+            collision |= blitRow(xC, yC + i, bits);
+        }
+        return collision;
+    }
+
+    /**
+     * Draws a 16x16 sprite of 32 bytes, two bytes per row.
+     * returns true on pixel collision
+     */
+    public synchronized boolean setSprite16(byte[] sprite, byte xCord, byte yCord) {
+        int xC = Byte.toUnsignedInt(xCord) % width;
+        int yC = Byte.toUnsignedInt(yCord) % height;
+
+        boolean collision = false;
+        for (int i = 0; (i < 16) && (yC + i < height); i++) {
+            int row = (sprite[2 * i] & 0xFF) << 8 | (sprite[2 * i + 1] & 0xFF);
+            long bits = Integer.reverse(row) >>> 16;
+            collision |= blitRow(xC, yC + i, bits);
+        }
+        return collision;
+    }
+
+    private boolean isSet(int x, int y) {
+        return (rows[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    /**
+     * XORs up to 16 pixels onto a row, pixels right of the display are clipped.
+     * @param bits bit n is the pixel at x + n
+     * @return true if any set pixel was cleared
+     */
+    private boolean blitRow(int x, int y, long bits) {
+        if(width - x < 16)
+            bits &= (1L << (width - x)) - 1;
+        int index = y * wordsPerRow + (x >>> 6);
+        int shift = x & 63;
+        boolean collision = xorWord(index, bits << shift);
+        if(shift > 48) {
+            long high = bits >>> (64 - shift);
+            if(high != 0)
+                collision |= xorWord(index + 1, high);
+        }
+        return collision;
+    }
+
+    private boolean xorWord(int index, long bits) {
+        long old = rows[index];
+        long word = old ^ bits;
+        rows[index] = word;
+        hash ^= StateHash.word(index, old) ^ StateHash.word(index, word);
+        return (old & bits) != 0;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import java.nio.LongBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands the display from the chip thread to a renderer without either
+ * waiting on the other. The chip publishes a copy of the frame buffer on
+ * every timer tick, the renderer takes whichever frame is the latest when
+ * it draws. Frames published in between are skipped.
+ * <p>
+ * Three frames rotate through the publisher: the chip fills the back
+ * frame and swaps it with the middle one, the renderer swaps the middle
+ * frame with its front frame when a newer one is waiting.
+ */
+public class FramePublisher {
+    private final FrameBuffer source;
+    private final AtomicReference<Frame> middle;
+    private Frame back;
+    private Frame front;
+    private long sequence = 0;
+
+    public FramePublisher(FrameBuffer source) {
+        this.source = source;
+        this.back = new Frame(source);
+        this.front = new Frame(source);
+        this.middle = new AtomicReference<>(new Frame(source));
+    }
+
+    /**
+     * Copies the frame buffer and makes it the latest frame.
+     * Only called by the chip thread.
+     */
+    public void publish() {
+        Frame frame = back;
+        source.copyTo(LongBuffer.wrap(frame.rows));
+        frame.sequence = ++sequence;
+        back = middle.getAndSet(frame);
+    }
+
+    /**
+     * Only called by the renderer thread. The returned frame stays
+     * unchanged until the next call.
+     * @return the latest published frame
+     */
+    public Frame latest() {
+        if (middle.get().sequence > front.sequence)
+            front = middle.getAndSet(front);
+        return front;
+    }
+
+    /**
+     * Immutable copy of the pixels as long as the renderer holds it.
+     */
+    public static final class Frame {
+        private final int width;
+        private final int wordsPerRow;
+        private final long[] rows;
+        private long sequence;
+
+        private Frame(FrameBuffer source) {
+            this.width = source.getWidth();
+            this.wordsPerRow = source.wordCount() / source.getHeight();
+            this.rows = new long[source.wordCount()];
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return rows.length / wordsPerRow;
+        }
+
+        /**
+         * @return number of frames published up to and including this one,
+         * 0 before the first
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        public boolean isSet(int x, int y) {
+            return (rows[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+        }
+    }
+}
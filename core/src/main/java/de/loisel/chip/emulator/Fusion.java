@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A sequence of opcodes that {@link LoChip} executes with a single dispatch.
+ */
+public class Fusion {
+    private final int[] opcodes;
+    private final int staticCount;
+    long fired = 0;
+
+    Fusion(int[] opcodes, int staticCount) {
+        this.opcodes = opcodes;
+        this.staticCount = staticCount;
+    }
+
+    public int[] getOpcodes() {
+        return opcodes.clone();
+    }
+
+    /**
+     * @return how often the sequence was found in the program
+     */
+    public int getStaticCount() {
+        return staticCount;
+    }
+
+    /**
+     * @return how often the last instruction of the sequence was executed fused
+     */
+    public long getFired() {
+        return fired;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int op : opcodes)
+            sb.append(String.format("$%02X ", op));
+        return sb + "found " + staticCount + ", fired " + fired;
+    }
+
+    /**
+     * Finds the most frequent follower for every opcode in a linear sweep
+     * over the program, and the most frequent third opcode for each of
+     * these pairs. Sequences never continue past an unconditional jump.
+     */
+    static List<Fusion> profile(Memory memory, int start, int end, int threshold) {
+        int[] ops = sweep(memory, start, end);
+        int[] pairs = new int[0x10000];
+        for (int i = 0; i + 1 < ops.length; i++) {
+            if (ops[i] >= 0 && ops[i + 1] >= 0)
+                pairs[ops[i] << 8 | ops[i + 1]]++;
+        }
+
+        List<Fusion> fusions = new ArrayList<>();
+        for (int first = 0; first < 0x100; first++) {
+            int second = mostFrequent(pairs, first << 8, threshold);
+            if (second < 0)
+                continue;
+            fusions.add(new Fusion(new int[] { first, second }, pairs[first << 8 | second]));
+
+            int[] triples = new int[0x100];
+            for (int i = 0; i + 2 < ops.length; i++) {
+                if (ops[i] == first && ops[i + 1] == second && ops[i + 2] >= 0)
+                    triples[ops[i + 2]]++;
+            }
+            int third = mostFrequent(triples, 0, threshold);
+            if (third >= 0)
+                fusions.add(new Fusion(new int[] { first, second, third }, triples[third]));
+        }
+        return fusions;
+    }
+
+    /**
+     * @return the opcodes in program order, -1 where a sequence ends
+     */
+    private static int[] sweep(Memory memory, int start, int end) {
+        int[] ops = new int[2 * Math.max(0, end - start)];
+        int n = 0;
+        int addr = start;
+        while (addr < end) {
+            int op = Byte.toUnsignedInt(memory.fetchCode((short) addr));
+            int len = Opcodes.length(op);
+            if (len == 0) {
+                ops[n++] = -1;
+                addr++;
+                continue;
+            }
+            ops[n++] = op;
+            if (Opcodes.isUnconditionalJump(op))
+                ops[n++] = -1;
+            addr += len;
+        }
+        return Arrays.copyOf(ops, n);
+    }
+
+    private static int mostFrequent(int[] counts, int offset, int threshold) {
+        int best = -1;
+        for (int i = 0; i < 0x100; i++) {
+            if (counts[offset + i] >= threshold && (best < 0 || counts[offset + i] > counts[offset + best]))
+                best = i;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+/**
+ * What {@link LoChip} does when it fetches an opcode it does not know.
+ * None of the policies write to the console on the hot path.
+ */
+public enum IllegalOpcodePolicy {
+    /** Stop the run with a {@link Fault}, the PC points at the opcode. */
+    HALT,
+    /** Like {@link #HALT}, but also stops the debugger with {@link Debugger.StopReason#ILLEGAL_OPCODE}. */
+    TRAP,
+    /** Skip the opcode and count it. */
+    NOP,
+    /** Skip the opcode, count it and log at most one warning per second. */
+    LOG
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * State of the 16 keys, packed into one bit per key.
+ * Reads are a single volatile load. Key presses are additionally
+ * counted so threads can wait for the next one.
+ */
+public class Keyboard {
+    public static final byte NO_KEY = (byte) 0xFF;
+
+    private final AtomicInteger keys = new AtomicInteger();
+    /** number of key presses in the upper bits, the last pressed key in the low 4 bits */
+    private final AtomicLong presses = new AtomicLong();
+    private final Set<Thread> waiters = ConcurrentHashMap.newKeySet();
+
+    public boolean isDown(byte key) {
+        return (keys.get() & bit(key)) != 0;
+    }
+
+    public void set(byte key) {
+        int bit = bit(key);
+        int old = keys.getAndUpdate(k -> k | bit);
+        if ((old & bit) == 0)
+            press(key & 0xF);
+        wakeWaiter();
+    }
+
+    public void unset(byte key) {
+        int bit = bit(key);
+        keys.getAndUpdate(k -> k & ~bit);
+        wakeWaiter();
+    }
+
+    public void toggleKeyState(byte key) {
+        if (isDown(key))
+            unset(key);
+        else
+            set(key);
+    }
+
+    public void resetKeys() {
+        keys.set(0);
+        wakeWaiter();
+    }
+
+    /**
+     * @return bit n is set if key n is down
+     */
+    public int getMask() {
+        return keys.get();
+    }
+
+    /**
+     * Replaces the state of all keys. Bit n sets key n.
+     */
+    public void setMask(int mask) {
+        int old = keys.getAndSet(mask & 0xFFFF);
+        int pressed = mask & ~old & 0xFFFF;
+        while (pressed != 0) {
+            press(Integer.numberOfTrailingZeros(pressed));
+            pressed &= pressed - 1;
+        }
+        wakeWaiter();
+    }
+
+    /**
+     * @return the lowest key that is down or {@link #NO_KEY}
+     */
+    public byte getNextKey() {
+        int mask = keys.get();
+        if (mask == 0)
+            return NO_KEY;
+        return (byte) Integer.numberOfTrailingZeros(mask);
+    }
+
+    /**
+     * Returns a key that is already down, otherwise parks the calling
+     * thread until the next key press. Any number of threads may wait,
+     * every press wakes all of them.
+     * @return the key or {@link #NO_KEY} if the thread was interrupted
+     */
+    public byte waitForKey() {
+        Thread current = Thread.currentThread();
+        long seen = presses.get();
+        waiters.add(current);
+        try {
+            while (true) {
+                byte key = getNextKey();
+                if (key != NO_KEY)
+                    return key;
+                long last = presses.get();
+                if (last >>> 4 != seen >>> 4)
+                    return (byte) (last & 0xF); // pressed and released while parked
+                if (current.isInterrupted())
+                    return NO_KEY;
+                LockSupport.park(this);
+            }
+        } finally {
+            waiters.remove(current);
+        }
+    }
+
+    /**
+     * Parks the calling thread until the key state differs from the mask
+     * or the timeout elapsed. Any number of threads may wait, e.g. several
+     * chips sharing the keyboard, every change wakes all of them.
+     */
+    public void awaitChange(int mask, long nanos) {
+        Thread current = Thread.currentThread();
+        waiters.add(current);
+        try {
+            if (keys.get() == mask)
+                LockSupport.parkNanos(this, nanos);
+        } finally {
+            waiters.remove(current);
+        }
+    }
+
+    private void press(int key) {
+        presses.getAndUpdate(p -> ((p >>> 4) + 1) << 4 | key);
+    }
+
+    private void wakeWaiter() {
+        for (Thread waiter : waiters)
+            LockSupport.unpark(waiter);
+    }
+
+    private static int bit(byte key) {
+        return 1 << (key & 0xF);
+    }
+}
@@ -0,0 +1,997 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+public class LoChip implements Runnable{
+    private static final int FUSION_THRESHOLD = 2;
+    private static final long TICK_NANOS = (long) (1e9F / 60L);
+    private static final int MAX_IDLE_LOOP = 32;
+    private static final long LOG_INTERVAL_NANOS = 1_000_000_000L;
+    private static final System.Logger LOGGER = System.getLogger(LoChip.class.getName());
+
+    Random rand;
+    /** source of the real time, replaced by tests */
+    LongSupplier clock = System::nanoTime;
+    private boolean isRunning;
+    private boolean exited = false;
+    private boolean verbose = true;
+    private long remainInstr = Long.MAX_VALUE;
+    private long cycleCount = 0;
+
+    private byte rX;
+    private byte rY;
+    private boolean f;
+    private short programCounter;
+    private short indexReg;
+    private int delayTimer;
+    private int soundTimer;
+    private volatile boolean sound;
+    private long lastTimerUpdate;
+    private volatile long tickNanos = TICK_NANOS;
+    private long instructionsPerTick = 0;
+    private long untilTick = Long.MAX_VALUE;
+    private boolean keyWaitPolling = false;
+
+    private boolean idleDetection = true;
+    private int idleStart = -1;
+    private int idleBranch = -1;
+    private boolean idlePolling;
+    private long idleCycle;
+    private byte idleRX;
+    private byte idleRY;
+    private boolean idleF;
+    private int idleDelayTimer;
+    private int idleKeys;
+    private long idleRandomDraws;
+    private long idleHash;
+    private long skippedInstructions = 0;
+
+    private IllegalOpcodePolicy illegalOpcodePolicy = IllegalOpcodePolicy.LOG;
+    private long illegalOpcodes = 0;
+    private long lastIllegalLog;
+    private long suppressedLogs = 0;
+    private Fault fault;
+    private RunResult.Reason stopReason;
+
+    private final Memory memory;
+    private final Stack stack;
+    private final FrameBuffer frameBuffer;
+    private final Keyboard keyboard;
+    private final byte[] sprite = new byte[0x100];
+    private Debugger debugger;
+    private long[] coverage;
+    private Watchdog watchdog;
+    private FramePublisher framePublisher;
+    long randomDraws = 0;
+
+    private final Map<Integer, Runnable> instructionMap;
+    private final Runnable[] instructions = new Runnable[0x100];
+    private final Runnable[] fusedInstructions = new Runnable[0x100];
+    private List<Fusion> fusions = List.of();
+    private boolean fusionEnabled = true;
+
+    public LoChip(Program program, FrameBuffer frameBuffer, Keyboard keyboard) {
+        this.frameBuffer = frameBuffer;
+        this.keyboard = keyboard;
+        this.memory = new Memory();
+        this.stack = new Stack();
+
+        this.programCounter = 0;
+        this.indexReg = 0;
+        this.delayTimer = 0;
+        this.soundTimer = 0;
+        this.rX = 0;
+        this.rY = 0;
+        this.lastTimerUpdate = clock.getAsLong();
+
+        instructionMap = new HashMap<>();
+        setUpInstructionMap();
+        Arrays.fill(instructions, (Runnable) this::illegalOpcode);
+        instructionMap.forEach((opcode, method) -> instructions[opcode] = method);
+
+        this.isRunning = false;
+        this.rand = new Random();
+
+        loadProgram(program);
+    }
+
+    public synchronized void loadProgram(Program program) {
+        byte[] rawProgram = program.getProgram();
+        int end = Math.min(programCounter + rawProgram.length, Memory.MEMORY_SIZE);
+        for (int i = programCounter; i < (programCounter + rawProgram.length); i++) {
+            memory.write((short)i, rawProgram[i - programCounter]);
+        }
+        this.programCounter = memory.fetchWord((short) 0);
+        setUpFusions(Short.toUnsignedInt(programCounter), end);
+    }
+
+    /**
+     * Timers tick every {@code instructionsPerTick} executed instructions
+     * instead of every 1/60 second. Runs are then deterministic and
+     * polling loops are skipped up to the next tick.
+     */
+    public void setVirtualTime(long instructionsPerTick) {
+        if(instructionsPerTick <= 0)
+            throw new IllegalArgumentException("instructionsPerTick must be positive");
+        this.instructionsPerTick = instructionsPerTick;
+        this.untilTick = instructionsPerTick;
+    }
+
+    /**
+     * Timers tick every 1/60 second, polling loops park the thread
+     * until the next tick or key change.
+     */
+    public void setRealTime() {
+        this.instructionsPerTick = 0;
+        this.untilTick = Long.MAX_VALUE;
+        this.lastTimerUpdate = clock.getAsLong();
+    }
+
+    /**
+     * In virtual time, lets $F2 without a key down wait for the next tick
+     * instead of blocking the thread. The instruction is then repeated, and
+     * counted against the budget, until a key is down. Hosts that set the
+     * keys between runs, like {@link VectorEnvironment} and {@link Explorer},
+     * need this. Off by default, $F2 then blocks until a key press as in
+     * real time.
+     */
+    public void setKeyWaitPolling(boolean keyWaitPolling) {
+        this.keyWaitPolling = keyWaitPolling;
+    }
+
+    /**
+     * Scales the guest clock in real time: timers tick {@code factor} times
+     * per 1/60 second and polling loops wait correspondingly shorter.
+     * May be changed while the chip is running. Has no effect in virtual time.
+     * @param factor above 1 for turbo, below 1 for slow motion
+     */
+    public void setSpeed(double factor) {
+        if(!(factor > 0) || Double.isInfinite(factor))
+            throw new IllegalArgumentException("speed must be positive");
+        this.tickNanos = Math.max(1, Math.round(TICK_NANOS / factor));
+    }
+
+    public double getSpeed() {
+        return (double) TICK_NANOS / tickNanos;
+    }
+
+    /**
+     * The publisher receives the display on every timer tick, before $F2
+     * waits for a key and when a run ends, so a renderer never has to lock
+     * the frame buffer.
+     * @param publisher null to stop publishing
+     */
+    public void setFramePublisher(FramePublisher publisher) {
+        this.framePublisher = publisher;
+    }
+
+    /**
+     * @param verbose print the loop statistics to the console
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * @return true once the program executed $AA EXIT
+     */
+    public boolean hasExited() {
+        return exited;
+    }
+
+    public void setIdleDetection(boolean idleDetection) {
+        this.idleDetection = idleDetection;
+    }
+
+    /**
+     * @return the instructions of polling loops that were counted
+     * as executed without running them, in virtual time
+     */
+    public long getSkippedInstructions() {
+        return skippedInstructions;
+    }
+
+    /**
+     * Superinstructions are only used by the normal loop, the debugger
+     * always sees single instructions.
+     */
+    public void setFusionEnabled(boolean fusionEnabled) {
+        this.fusionEnabled = fusionEnabled;
+    }
+
+    /**
+     * @return the opcode sequences fused for the loaded program
+     */
+    public List<Fusion> getFusions() {
+        return fusions;
+    }
+
+    public void setIllegalOpcodePolicy(IllegalOpcodePolicy policy) {
+        this.illegalOpcodePolicy = policy;
+    }
+
+    /**
+     * @return all unknown opcodes fetched by this chip
+     */
+    public long getIllegalOpcodeCount() {
+        return illegalOpcodes;
+    }
+
+    /**
+     * Lock-free view of the sound timer for the audio thread.
+     * The flag is only written when the buzzer switches on or off.
+     */
+    public boolean isSound() {
+        return sound;
+    }
+
+    @Override
+    public void run() {
+        runProgram();
+    }
+
+    /**
+     * @param instructions the max number of executed instructions
+     * @return the number of instructions executed before exit
+     */
+    public long run(long instructions) {
+        remainInstr = instructions;
+        this.run();
+        return  cycleCount;
+    }
+
+    /**
+     * Like {@link #run(long)}, but reports why the run ended.
+     * @param instructions the max number of executed instructions
+     */
+    public RunResult runFor(long instructions) {
+        long skipped = skippedInstructions;
+        long illegal = illegalOpcodes;
+        long executed = run(instructions);
+        return new RunResult(stopReason, executed, skippedInstructions - skipped,
+                illegalOpcodes - illegal, fault);
+    }
+
+    /**
+     * Executes a single instruction without entering the loop.
+     */
+    public void step() {
+        cycle(instructions);
+        cycleCount++;
+        updateTimers();
+    }
+
+    public Debugger getDebugger() {
+        if(debugger == null)
+            debugger = new Debugger(this, memory);
+        return debugger;
+    }
+
+    public Registers getRegisters() {
+        return new Registers(rX, rY, f, programCounter, indexReg,
+                delayTimer, soundTimer, stack.getStackPointer());
+    }
+
+    public short getProgramCounter() {
+        return programCounter;
+    }
+
+    /**
+     * Captures the complete machine state. Must not be called while the chip runs.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(memory.copyData(), stack.copyStack(), stack.getPointer(),
+                frameBuffer.copyRows(), rX, rY, f, programCounter, indexReg,
+                delayTimer, soundTimer, untilTick, exited,
+                memory.contentHash(), frameBuffer.contentHash(), stack.contentHash(), stateHash());
+    }
+
+    /**
+     * 64 bit hash of the whole machine state as captured by {@link #snapshot()}.
+     * Memory, pixels and stack keep their hashes up to date on every write,
+     * only the registers are hashed here, so this takes a few nanoseconds.
+     * Equal states have equal hashes, different ones collide with a
+     * probability of about 2^-64.
+     */
+    public long stateHash() {
+        long h = StateHash.combine(memory.contentHash(), frameBuffer.contentHash());
+        h = StateHash.combine(h, stack.contentHash());
+        h = StateHash.combine(h, Byte.toUnsignedLong(rX) | Byte.toUnsignedLong(rY) << 8
+                | (f ? 1L : 0L) << 16 | Short.toUnsignedLong(programCounter) << 24
+                | Short.toUnsignedLong(indexReg) << 40);
+        h = StateHash.combine(h, (long) delayTimer << 32 | soundTimer);
+        h = StateHash.combine(h, untilTick);
+        return StateHash.combine(h, (long) stack.getPointer() << 1 | (exited ? 1 : 0));
+    }
+
+    /**
+     * Puts the chip back into the captured state. The frame buffer must
+     * have the size of the one the snapshot was taken from.
+     */
+    public void restore(Snapshot snapshot) {
+        memory.restore(snapshot.memory, snapshot.memoryHash);
+        stack.restore(snapshot.stack, snapshot.stackPointer, snapshot.stackHash);
+        frameBuffer.restoreRows(snapshot.pixels, snapshot.pixelHash);
+        rX = snapshot.rX;
+        rY = snapshot.rY;
+        f = snapshot.f;
+        programCounter = snapshot.programCounter;
+        indexReg = snapshot.indexReg;
+        delayTimer = snapshot.delayTimer;
+        soundTimer = snapshot.soundTimer;
+        untilTick = snapshot.untilTick;
+        exited = snapshot.exited;
+        idleStart = -1;
+        updateSound();
+    }
+
+    /**
+     * Sets bit {@code pc % 64} of {@code bitmap[pc / 64]} for every executed
+     * instruction. Runs with a bitmap use the checked loop without superinstructions.
+     * @param bitmap {@code Memory.MEMORY_SIZE / 64} longs, or null to stop recording
+     */
+    public void setCoverage(long[] bitmap) {
+        this.coverage = bitmap;
+    }
+
+    /**
+     * Stops runs with {@link RunResult.Reason#HUNG} when the watchdog sees
+     * them loop. Null turns it off.
+     */
+    public void setWatchdog(Watchdog watchdog) {
+        this.watchdog = watchdog;
+    }
+
+    /**
+     * @see Memory#map(short, int, MemoryDevice)
+     */
+    public void mapDevice(short address, int length, MemoryDevice device) {
+        memory.map(address, length, device);
+    }
+
+    public void unmapDevice(short address, int length) {
+        memory.unmap(address, length);
+    }
+
+    public void debugRegs() {
+        System.out.println("Registers:\n");
+
+        System.out.println("Rx: " + rX);
+        System.out.println("Ry: " + rY);
+        System.out.println("f:  " + f);
+        System.out.println("PC: " + programCounter);
+        System.out.println("SP: " + stack.getStackPointer());
+        System.out.println("I:  " + indexReg);
+        System.out.println("DT: " + delayTimer);
+        System.out.println("ST: " + soundTimer);
+    }
+
+    /**
+     * @return a copy of the RAM, see {@link #getMemory()} for views without copying
+     */
+    public byte[] dumpMemory() {
+        return memory.copyData();
+    }
+
+    public Memory getMemory() {
+        return memory;
+    }
+
+    private void setUpInstructionMap() {
+        instructionMap.put(0xE0,                // $E0 - CLS
+                frameBuffer::clearBuffer
+        );
+        instructionMap.put(0xEE, () ->          // $EE - RET
+                programCounter = stack.pop()
+        );
+        instructionMap.put(0x10, () ->          // $10 - JP addr
+                programCounter = fetchPCWord()
+        );
+        instructionMap.put(0x11, () -> {        // $11 - JP I, F
+            if(f)
+                jumpToIndex(1);
+        });
+        instructionMap.put(0x20, () -> {        // $20 - CALL addr
+            short dest = fetchPCWord();
+            stack.push(programCounter);
+            programCounter = dest;
+        });
+        instructionMap.put(0x30, () -> {        // $30 - SE Rx, b1
+            byte b1 = fetchPC();
+            if(rX == b1)
+                jumpToIndex(2);
+        });
+        instructionMap.put(0x31, () -> {        // $31 - JNE Rx, b1
+            byte b1 = fetchPC();
+            if(rX != b1)
+                jumpToIndex(2);
+        });
+        instructionMap.put(0x50, () -> {        // $50 - JE Rx, Ry
+            if(rX == rY)
+                jumpToIndex(1);
+        });
+        instructionMap.put(0x51, () -> {        // $51 - JNE Rx, Ry
+            if(rX != rY)
+                jumpToIndex(1);
+        });
+        instructionMap.put(0x60, () ->          // $60 - LD Rx, b1
+                rX = fetchPC()
+        );
+        instructionMap.put(0x61, () ->          // $61 - LD Ry, b1
+                rY = fetchPC()
+        );
+
+
+        instructionMap.put(0x62, () ->          // $62 - LD Rx, I
+                rX = memory.fetch(indexReg)
+        );
+        instructionMap.put(0x63, () ->          // $63 - LD Ry, I
+                rY = memory.fetch(indexReg)
+        );
+        instructionMap.put(0x64, () ->          // $64 - LD I, Rx
+                memory.write(indexReg, rX)
+        );
+        instructionMap.put(0x65, () ->          // $65 - LD I, Ry
+                memory.write(indexReg, rY)
+        );
+
+
+        instructionMap.put(0x70, () ->          // $70 - ADD Rx, b1
+                rX += fetchPC()
+        );
+        instructionMap.put(0x71, () ->          // $71 - ADD Ry, b1
+                rY += fetchPC()
+        );
+        instructionMap.put(0x80, () ->          // $80 - LD Rx, Ry
+                rX = rY
+        );
+        instructionMap.put(0x8A, () ->          // $8A - LD Ry, Rx
+                rY = rX
+        );
+        instructionMap.put(0x81, () ->          // $81 - OR Rx, Ry
+                rX |= rY
+        );
+        instructionMap.put(0x82, () ->          // $82 - AND Rx, Ry
+                rX &= rY
+        );
+        instructionMap.put(0x83, () ->          // $83 - XOR Rx, Ry
+                rX ^= rY
+        );
+        instructionMap.put(0x84, () -> {        // $84 - ADD Rx, Ry
+                f = willAdditionOverflow(rX, rY);
+                rX += rY;
+        });
+        instructionMap.put(0x85, () -> {        // $85 - SUB Rx, Ry
+            f = willSubtractionOverflow(rX, rY);
+            rX -= rY;
+        });
+        instructionMap.put(0x86, () -> {        // $86 - SHR Rx, b1
+            f = (0b00000001 & rX) != 0;
+            rX = (byte) ((rX & 0xFF) >>> 1);
+        });
+        instructionMap.put(0x87, () -> {        // $87 - SUBN Rx, Ry
+            f = willSubtractionOverflow(rY, rX);
+            rX = (byte) (rY - rX);
+        });
+        instructionMap.put(0x8E, () -> {        // $8E - SHL Rx, 1
+            f = (0b10000000 & rX) != 0;
+            rX = (byte) (rX << 1);
+        });
+        instructionMap.put(0xA0, () ->          // $A0 - LD I, addr
+                indexReg = fetchPCWord()
+        );
+        instructionMap.put(0xA1, () -> {        // $A1 - LD I, RxRy
+            indexReg = (short) (rX << 8);
+            indexReg |= rY;
+        });
+        instructionMap.put(0xB0, () ->          // $B0 - JP Rx, addr
+                programCounter = (short) (Byte.toUnsignedInt(fetchPC()) + Byte.toUnsignedInt(rX))
+        );
+        instructionMap.put(0xC0, () -> {        // $C0 - RND Rx, b1
+            randomDraws++;
+            rX = (byte) (rand.nextInt() & fetchPC());
+        });
+        instructionMap.put(0xD0, () -> {        // $D0 - DRW Rx, Ry, n
+            int b1 = Byte.toUnsignedInt(fetchPC());
+            memory.fetchArray(indexReg, sprite, b1);
+            f = frameBuffer.setSprite(sprite, b1, rX, rY);
+        });
+        instructionMap.put(0xE1, () -> {        // $E1 - JKP Rx
+            if(keyboard.isDown(rX))
+                jumpToIndex(1);
+        });
+        instructionMap.put(0xE2, () -> {        // $E2 - JKNP Rx
+            if(!keyboard.isDown(rX))
+                jumpToIndex(1);
+        });
+        instructionMap.put(0xF1, () ->          // $F1 - LD Rx, DT
+                rX = (byte) delayTimer
+        );
+        instructionMap.put(0xF2, () -> {        // $F2 - LD Rx, K
+            if(keyWaitPolling && instructionsPerTick > 0 && keyboard.getNextKey() == Keyboard.NO_KEY) {
+                // keys only change between frames, wait for the next tick
+                programCounter--;
+                skipIdle(1, 0);
+                return;
+            }
+            // no tick runs while waiting, show what was drawn before
+            publishFrame();
+            byte k = keyboard.waitForKey();
+            if(k == Keyboard.NO_KEY) {
+                // interrupted, execute $F2 again when resumed
+                programCounter--;
+                isRunning = false;
+            } else {
+                rX = k;
+            }
+        });
+        instructionMap.put(0xF3, () ->          // $F3 - LD DT, Rx
+                delayTimer = rX
+        );
+        instructionMap.put(0xF4, () -> {        // $F4 - LD ST, Rx
+            soundTimer = rX;
+            updateSound();
+        });
+        instructionMap.put(0xFA, () ->          // $FA - ADD I, Rx
+                indexReg += rX
+        );
+        instructionMap.put(0xFC, () -> {        // $FC - LD B, Rx
+            int num = Byte.toUnsignedInt(rX);
+            memory.write(indexReg, (byte) (num / 100));
+            memory.write((short) (indexReg + 1), (byte) ((num % 100) / 10));
+            memory.write((short) (indexReg + 2), (byte) ((num % 100) % 10));
+        });
+        instructionMap.put(0xFD, () -> {        // $FD - LD I, Rx, Ry
+            memory.write(indexReg, rX);
+            memory.write((short) (indexReg + 1), rY);
+        });
+        instructionMap.put(0xFE, () -> {        // $FE - LD Rx, Ry, I
+            rX = memory.fetch(indexReg);
+            rY = memory.fetch((short) (indexReg + 1));
+        });
+        instructionMap.put(0xD1, () -> {        // $D1 - DRW Rx, Ry
+            memory.fetchArray(indexReg, sprite, 32);
+            f = frameBuffer.setSprite16(sprite, rX, rY);
+        });
+        instructionMap.put(0xAA, () -> {        // $AA - EXIT
+            isRunning = false;
+            exited = true;
+            stopReason = RunResult.Reason.EXIT;
+        });
+    }
+    /**
+     * Replaces the handler of the first opcode of every frequent sequence
+     * with one that also executes the rest of the sequence, if it follows.
+     * The handlers check the opcodes in memory each time, so they stay
+     * correct for jumps into the sequence and self modifying code.
+     */
+    private void setUpFusions(int start, int end) {
+        fusions = Fusion.profile(memory, start, end, FUSION_THRESHOLD);
+        System.arraycopy(instructions, 0, fusedInstructions, 0, instructions.length);
+        for(Fusion pair : fusions) {
+            int[] ops = pair.getOpcodes();
+            if(ops.length != 2 || !instructionMap.containsKey(ops[0]) || !instructionMap.containsKey(ops[1]))
+                continue;
+            Runnable second = instructions[ops[1]];
+            for(Fusion triple : fusions) {
+                int[] t = triple.getOpcodes();
+                if(t.length == 3 && t[0] == ops[0] && t[1] == ops[1] && instructionMap.containsKey(t[2]))
+                    second = fuse(second, t[2], instructions[t[2]], triple);
+            }
+            fusedInstructions[ops[0]] = fuse(instructions[ops[0]], ops[1], second, pair);
+        }
+    }
+
+    private Runnable fuse(Runnable first, int nextOpcode, Runnable next, Fusion fusion) {
+        return () -> {
+            first.run();
+            if(isRunning && remainInstr > 1 && untilTick > 1
+                    && Byte.toUnsignedInt(memory.fetchCode(programCounter)) == nextOpcode) {
+                programCounter++;
+                cycleCount++;
+                remainInstr--;
+                if(instructionsPerTick > 0)
+                    untilTick--;
+                next.run();
+                fusion.fired++;
+            }
+        };
+    }
+
+    /**
+     * Loop of {@link CompiledRom#run}: executes the compiled blocks and
+     * interprets everything else.
+     */
+    RunResult runCompiled(CompiledRom rom, long budget) {
+        if(instructionsPerTick <= 0)
+            throw new IllegalStateException("compiled ROMs only run in virtual time");
+        long skipped = skippedInstructions;
+        long illegal = illegalOpcodes;
+        isRunning = true;
+        cycleCount = 0;
+        remainInstr = budget;
+        idleStart = -1;
+        fault = null;
+        stopReason = null;
+        if(watchdog != null)
+            watchdog.restart();
+
+        saveTo(rom);
+        while(isRunning && rom.remain > 0) {
+            if(rom.execute(Short.toUnsignedInt(rom.programCounter))) {
+                if(rom.untilTick == 0) {
+                    rom.tick();
+                    rom.untilTick = instructionsPerTick;
+                    if(watchdog != null) {
+                        loadFrom(rom);
+                        checkWatchdog();
+                    }
+                }
+            } else {
+                loadFrom(rom);
+                cycle(instructions);
+                cycleCount++;
+                updateTimers();
+                remainInstr--;
+                saveTo(rom);
+            }
+        }
+        loadFrom(rom);
+        publishFrame();
+
+        if(stopReason == null)
+            stopReason = remainInstr <= 0 ? RunResult.Reason.BUDGET : RunResult.Reason.STOPPED;
+        return new RunResult(stopReason, cycleCount, skippedInstructions - skipped,
+                illegalOpcodes - illegal, fault);
+    }
+
+    private void saveTo(CompiledRom rom) {
+        rom.chip = this;
+        rom.memory = memory;
+        rom.stack = stack;
+        rom.frameBuffer = frameBuffer;
+        rom.keyboard = keyboard;
+        rom.rX = rX;
+        rom.rY = rY;
+        rom.f = f;
+        rom.programCounter = programCounter;
+        rom.indexReg = indexReg;
+        rom.delayTimer = delayTimer;
+        rom.soundTimer = soundTimer;
+        rom.untilTick = untilTick;
+        rom.remain = remainInstr;
+        rom.executed = cycleCount;
+    }
+
+    private void loadFrom(CompiledRom rom) {
+        rX = rom.rX;
+        rY = rom.rY;
+        f = rom.f;
+        programCounter = rom.programCounter;
+        indexReg = rom.indexReg;
+        delayTimer = rom.delayTimer;
+        soundTimer = rom.soundTimer;
+        untilTick = rom.untilTick;
+        remainInstr = rom.remain;
+        cycleCount = rom.executed;
+    }
+
+    private void runProgram() {
+        this.loop();
+        // the renderer has to see how the run ended, e.g. after $AA EXIT or a breakpoint
+        publishFrame();
+    }
+
+    private void loop() {
+        if(verbose)
+            System.out.println("START LOOP =======================");
+
+        lastTimerUpdate = clock.getAsLong();
+        isRunning = true;
+
+        /* debug info */
+        cycleCount = 0;
+        idleStart = -1;
+        fault = null;
+        stopReason = null;
+        if(watchdog != null)
+            watchdog.restart();
+        long startTime = System.currentTimeMillis();
+        /* debug info */
+
+        if(coverage != null || debugger != null && debugger.isActive())
+            checkedLoop();
+        else
+            fastLoop();
+        if(stopReason == null)
+            stopReason = remainInstr <= 0 ? RunResult.Reason.BUDGET : RunResult.Reason.STOPPED;
+        if(debugger != null)
+            debugger.runEnded(programCounter);
+
+        if(!verbose)
+            return;
+        long endT = System.currentTimeMillis();
+        System.out.println("Program ran " + (endT - startTime) + " milliseconds");
+        System.out.println("Executed " + cycleCount + " cycles");
+        System.out.println("Average of " + (cycleCount / Math.max(1, endT - startTime)) + " instructions per millisecond");
+        System.out.println("END LOOP =========================\n");
+    }
+
+    private void fastLoop() {
+        Runnable[] table = fusionEnabled ? fusedInstructions : instructions;
+        while(isRunning && remainInstr > 0) {
+            cycle(table);
+            cycleCount++;
+            updateTimers();
+            remainInstr--;
+        }
+    }
+
+    /**
+     * Same as {@link #fastLoop()}, but asks the debugger before and
+     * after every instruction and records the coverage.
+     */
+    private void checkedLoop() {
+        boolean debugging = debugger != null && debugger.isActive();
+        while(isRunning && remainInstr > 0) {
+            if(debugging && debugger.shouldStop(programCounter)) {
+                stopReason = RunResult.Reason.BREAKPOINT;
+                break;
+            }
+            if(coverage != null)
+                coverage[Short.toUnsignedInt(programCounter) >>> 6] |= 1L << programCounter;
+
+            cycle(instructions);
+            cycleCount++;
+            updateTimers();
+            remainInstr--;
+
+            if(debugging && debugger.takeWatchHit()) {
+                stopReason = RunResult.Reason.BREAKPOINT;
+                break;
+            }
+        }
+    }
+
+    private void updateTimers() {
+        if(instructionsPerTick > 0) {
+            if(--untilTick <= 0) {
+                tickTimers();
+                untilTick = instructionsPerTick;
+            }
+            return;
+        }
+        long currentTime = clock.getAsLong();
+        if(currentTime - lastTimerUpdate >= tickNanos) {
+            tickTimers();
+            lastTimerUpdate = currentTime;
+        }
+    }
+
+    private void tickTimers() {
+        if(delayTimer > 0)
+            delayTimer--;
+        if(soundTimer > 0) {
+            soundTimer--;
+            updateSound();
+        }
+        if(watchdog != null)
+            checkWatchdog();
+        publishFrame();
+    }
+
+    void publishFrame() {
+        if(framePublisher != null)
+            framePublisher.publish();
+    }
+
+    private void checkWatchdog() {
+        if(watchdog.sample(stateHash(), keyboard.getMask(), randomDraws, !memory.hasDevices(),
+                cycleCount, programCounter)) {
+            isRunning = false;
+            stopReason = RunResult.Reason.HUNG;
+        }
+    }
+
+    /**
+     * Taken branch of a conditional jump.
+     * @param length size of the jump instruction
+     */
+    private void jumpToIndex(int length) {
+        int from = Short.toUnsignedInt(programCounter) - length;
+        programCounter = indexReg;
+        if(idleDetection && Short.toUnsignedInt(indexReg) <= from)
+            checkIdle(from);
+    }
+
+    /**
+     * Called for every backward jump. A loop that reaches its jump twice
+     * with the same registers, timers, keys, memory, display and stack
+     * and without drawing a random number in between is deterministic
+     * and will repeat until the next timer tick or key change.
+     * Such a loop is skipped up to the next timer tick.
+     * <p>
+     * Only short loops of side effect free instructions are considered,
+     * because other loops rarely repeat their state. The whole state is
+     * compared regardless, since a conditional jump in the body can leave
+     * the loop and run stores before coming back, and the loop may have
+     * been rewritten since it was inspected.
+     */
+    private void checkIdle(int branch) {
+        int start = Short.toUnsignedInt(indexReg);
+        if(start != idleStart || branch != idleBranch) {
+            idleStart = start;
+            idleBranch = branch;
+            // a loop may poll a device, which can change without the chip
+            idlePolling = branch - start <= MAX_IDLE_LOOP && !memory.hasDevices()
+                    && isPollingLoop(start, branch);
+            idleCycle = -1;
+        }
+        if(!idlePolling)
+            return;
+
+        int keys = keyboard.getMask();
+        long hash = idleStateHash();
+        if(idleCycle >= 0 && rX == idleRX && rY == idleRY && f == idleF
+                && delayTimer == idleDelayTimer && keys == idleKeys
+                && randomDraws == idleRandomDraws && hash == idleHash
+                && !memory.hasDevices() && (debugger == null || !debugger.isActive()))
+            skipIdle(cycleCount - idleCycle, keys);
+
+        idleCycle = cycleCount;
+        idleRX = rX;
+        idleRY = rY;
+        idleF = f;
+        idleDelayTimer = delayTimer;
+        idleKeys = keys;
+        idleRandomDraws = randomDraws;
+        idleHash = hash;
+    }
+
+    /**
+     * @return hash of the state {@link #checkIdle(int)} does not compare
+     * field by field, I is the loop start at every check
+     */
+    private long idleStateHash() {
+        long h = StateHash.combine(memory.contentHash(), frameBuffer.contentHash());
+        h = StateHash.combine(h, stack.contentHash());
+        return StateHash.combine(h, (long) stack.getPointer() << 32 | soundTimer);
+    }
+
+    private boolean isPollingLoop(int start, int branch) {
+        int addr = start;
+        while(addr < branch) {
+            int opcode = Byte.toUnsignedInt(memory.fetchCode((short) addr));
+            if(!Opcodes.isSideEffectFree(opcode))
+                return false;
+            addr += Opcodes.length(opcode);
+        }
+        return addr == branch;
+    }
+
+    /**
+     * In virtual time, counts whole iterations of the loop as executed
+     * until just before the next tick or the end of the budget, which
+     * leaves the chip in the same state as running them.
+     * In real time, parks until the next tick or a key change.
+     */
+    private void skipIdle(long length, int keys) {
+        if(length <= 0)
+            return;
+        if(instructionsPerTick > 0) {
+            long skipped = (Math.min(untilTick, remainInstr) - 1) / length * length;
+            cycleCount += skipped;
+            remainInstr -= skipped;
+            untilTick -= skipped;
+            skippedInstructions += skipped;
+        } else {
+            long wait = lastTimerUpdate + tickNanos - clock.getAsLong();
+            if(wait > 0)
+                keyboard.awaitChange(keys, wait);
+        }
+    }
+
+    private void cycle(Runnable[] table) {
+        // Fetch
+        int opcode = Byte.toUnsignedInt(fetchPC());
+
+        table[opcode].run();
+    }
+
+    /**
+     * Handler of every opcode without an instruction.
+     */
+    private void illegalOpcode() {
+        short address = (short) (programCounter - 1);
+        int opcode = Byte.toUnsignedInt(memory.fetchCode(address));
+        illegalOpcodes++;
+        switch (illegalOpcodePolicy) {
+            case HALT, TRAP -> {
+                programCounter = address;
+                fault = new Fault(address, opcode, cycleCount);
+                stopReason = RunResult.Reason.FAULT;
+                isRunning = false;
+                // the opcode is executed again on resume, undo the count that follows this cycle
+                cycleCount--;
+                remainInstr++;
+                if(instructionsPerTick > 0)
+                    untilTick++;
+                if(illegalOpcodePolicy == IllegalOpcodePolicy.TRAP)
+                    getDebugger().trap(address);
+            }
+            case LOG -> logIllegalOpcode(address, opcode);
+            case NOP -> { }
+        }
+    }
+
+    private void logIllegalOpcode(short address, int opcode) {
+        long now = System.nanoTime();
+        if(illegalOpcodes > 1 && now - lastIllegalLog < LOG_INTERVAL_NANOS) {
+            suppressedLogs++;
+            return;
+        }
+        lastIllegalLog = now;
+        long suppressed = suppressedLogs;
+        suppressedLogs = 0;
+        LOGGER.log(System.Logger.Level.WARNING, () -> String.format(
+                "Opcode %02X not found at %04X (%d more suppressed)",
+                opcode, Short.toUnsignedInt(address), suppressed));
+    }
+
+    private void updateSound() {
+        setSound(soundTimer > 0);
+    }
+
+    void setSound(boolean on) {
+        if(on != sound)
+            sound = on;
+    }
+
+    private byte fetchPC() {
+        byte data = memory.fetchCode(programCounter);
+        programCounter++;
+        return data;
+    }
+
+    private short fetchPCWord() {
+        short data = (short)(memory.fetchCode(programCounter) << 8);
+        programCounter++;
+        data |= memory.fetchCode(programCounter) & 0xFF;
+        programCounter++;
+        return data;
+    }
+
+    private static boolean willAdditionOverflow(byte left, byte right) {
+        int l = Byte.toUnsignedInt(left);
+        int r = Byte.toUnsignedInt(right);
+        return l + r > 255;
+    }
+
+    private static boolean willSubtractionOverflow(byte left, byte right) {
+        int l = Byte.toUnsignedInt(left);
+        int r = Byte.toUnsignedInt(right);
+        return r < l;
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+public class Memory {
+    public static final int MEMORY_SIZE = 0x10000;
+    public static final int PAGE_SIZE = 0x100;
+    private static final int PAGE_SHIFT = 8;
+
+    private final byte[] data;
+    private AccessWatcher watcher;
+    /** XOR of {@link StateHash#memory} over the RAM, updated on every write */
+    private long hash = 0;
+    /** No watcher and no devices, loads and stores go straight to the array. */
+    private boolean plain = true;
+
+    /**
+     * Device of every page, null for RAM.
+     */
+    private final Mapping[] pages = new Mapping[MEMORY_SIZE / PAGE_SIZE];
+    private int devicePages = 0;
+
+    private record Mapping(MemoryDevice device, int base) {
+    }
+
+    /**
+     * Notified about data accesses, used for watchpoints.
+     */
+    interface AccessWatcher {
+        void onRead(int address);
+        void onWrite(int address);
+    }
+
+    public Memory() {
+        this.data = new byte[MEMORY_SIZE];
+    }
+
+    public byte fetch(short address) {
+        int addr = Short.toUnsignedInt(address);
+        if (plain)
+            return data[addr];
+        if (watcher != null)
+            watcher.onRead(addr);
+        return read(addr);
+    }
+
+    /**
+     * Instruction fetch, not reported to the watcher.
+     * Devices are not executable, code is always fetched from RAM.
+     */
+    byte fetchCode(short address) {
+        return data[Short.toUnsignedInt(address)];
+    }
+
+    public byte[] fetchArray(short address, int length) {
+        byte[] arr = new byte[length];
+        fetchArray(address, arr, length);
+        return arr;
+    }
+
+    /**
+     * Copies {@code length} bytes into dest without allocating.
+     * Bytes past the end of the memory read as 0.
+     */
+    public void fetchArray(short address, byte[] dest, int length) {
+        int addr = Short.toUnsignedInt(address);
+        int n = Math.min(length, MEMORY_SIZE - addr);
+        if (watcher != null) {
+            for (int i = 0; i < n; i++)
+                watcher.onRead(addr + i);
+        }
+        if (!plain && hasDevice(addr, n)) {
+            for (int i = 0; i < n; i++)
+                dest[i] = read(addr + i);
+        } else {
+            System.arraycopy(data, addr, dest, 0, n);
+        }
+        Arrays.fill(dest, n, length, (byte) 0);
+    }
+
+    public void write(short address, byte data) {
+        int addr = Short.toUnsignedInt(address);
+        if (plain) {
+            hash ^= StateHash.memory(addr, this.data[addr]) ^ StateHash.memory(addr, data);
+            this.data[addr] = data;
+            return;
+        }
+        if (watcher != null)
+            watcher.onWrite(addr);
+        writeMapped(addr, data);
+    }
+
+    /**
+     * Maps a device over whole pages. Accesses to them go to the device
+     * instead of RAM, the RAM below keeps its content.
+     * @param address start of the first page
+     * @param length multiple of {@link #PAGE_SIZE}
+     * @throws IllegalArgumentException if the range is not page aligned
+     * or overlaps another device
+     */
+    public void map(short address, int length, MemoryDevice device) {
+        int first = checkPages(address, length);
+        int count = length >>> PAGE_SHIFT;
+        for (int i = first; i < first + count; i++) {
+            if (pages[i] != null)
+                throw new IllegalArgumentException("page " + Integer.toHexString(i) + " is already mapped");
+        }
+        Mapping mapping = new Mapping(device, Short.toUnsignedInt(address));
+        Arrays.fill(pages, first, first + count, mapping);
+        devicePages += count;
+        plain = false;
+    }
+
+    /**
+     * Turns the pages back into RAM.
+     */
+    public void unmap(short address, int length) {
+        int first = checkPages(address, length);
+        for (int i = first; i < first + (length >>> PAGE_SHIFT); i++) {
+            if (pages[i] != null) {
+                pages[i] = null;
+                devicePages--;
+            }
+        }
+        plain = watcher == null && devicePages == 0;
+    }
+
+    public boolean hasDevices() {
+        return devicePages > 0;
+    }
+
+    private static int checkPages(short address, int length) {
+        int addr = Short.toUnsignedInt(address);
+        if (addr % PAGE_SIZE != 0 || length <= 0 || length % PAGE_SIZE != 0 || addr + length > MEMORY_SIZE)
+            throw new IllegalArgumentException("not a page range: " + Integer.toHexString(addr) + "+" + length);
+        return addr >>> PAGE_SHIFT;
+    }
+
+    private boolean hasDevice(int addr, int length) {
+        for (int i = addr >>> PAGE_SHIFT; i <= (addr + length - 1) >>> PAGE_SHIFT; i++) {
+            if (pages[i] != null)
+                return true;
+        }
+        return false;
+    }
+
+    private void writeMapped(int addr, byte value) {
+        Mapping page = pages[addr >>> PAGE_SHIFT];
+        if (page != null) {
+            page.device.write(addr - page.base, value);
+        } else {
+            hash ^= StateHash.memory(addr, data[addr]) ^ StateHash.memory(addr, value);
+            data[addr] = value;
+        }
+    }
+
+    private byte read(int addr) {
+        Mapping page = pages[addr >>> PAGE_SHIFT];
+        if (page != null)
+            return page.device.read(addr - page.base);
+        return data[addr];
+    }
+
+    void setWatcher(AccessWatcher watcher) {
+        this.watcher = watcher;
+        plain = watcher == null && devicePages == 0;
+    }
+
+    /**
+     * Clears the RAM in place, views stay valid.
+     */
+    public void reset() {
+        Arrays.fill(data, (byte) 0);
+        this.hash = 0;
+    }
+
+    public short fetchWord(short address) {
+        if(address < data.length - 1)
+            return (short) ((data[address] << 8) | (data[address + 1] & 0xFF));
+        else
+            return 0;
+    }
+
+    /**
+     * Overwrites the RAM in place, devices stay mapped.
+     */
+    void restore(byte[] content, long contentHash) {
+        System.arraycopy(content, 0, data, 0, MEMORY_SIZE);
+        hash = contentHash;
+    }
+
+    /**
+     * @return hash of the RAM, maintained incrementally. Devices are not part of it.
+     */
+    public long contentHash() {
+        return hash;
+    }
+
+    /**
+     * Live read-only view of the RAM without copying it.
+     * Reads through the view are not reported to the watcher and do not see devices.
+     */
+    public ByteBuffer asReadOnlyBuffer() {
+        return ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    /**
+     * Copies a region of the RAM into dest.
+     * @throws IndexOutOfBoundsException if the region is outside the memory or dest
+     */
+    public void load(int address, byte[] dest, int offset, int length) {
+        Objects.checkFromIndexSize(address, length, MEMORY_SIZE);
+        System.arraycopy(data, address, dest, offset, length);
+    }
+
+    /**
+     * Copies src into a region of the RAM, keeping the hash up to date.
+     * This is how hosts patch the RAM, there is no writable view that
+     * could bypass the hash. Not reported to the watcher and not seen by devices.
+     * @throws IndexOutOfBoundsException if the region is outside the memory or src
+     */
+    public void store(int address, byte[] src, int offset, int length) {
+        Objects.checkFromIndexSize(address, length, MEMORY_SIZE);
+        Objects.checkFromIndexSize(offset, length, src.length);
+        long h = hash;
+        for (int i = 0; i < length; i++)
+            h ^= StateHash.memory(address + i, data[address + i]) ^ StateHash.memory(address + i, src[offset + i]);
+        hash = h;
+        System.arraycopy(src, offset, data, address, length);
+    }
+
+    public byte[] copyData() {
+        byte[] newData = new byte[MEMORY_SIZE];
+        System.arraycopy(data,0,newData,0,MEMORY_SIZE);
+        return newData;
+    }
+}
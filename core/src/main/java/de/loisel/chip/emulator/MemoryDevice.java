@@ -16,23 +16,12 @@
 
 package de.loisel.chip.emulator;
 
+/**
+ * Peripheral mapped into whole pages of {@link Memory}.
+ * Offsets are relative to the start of the mapping.
+ */
+public interface MemoryDevice {
+    byte read(int offset);
 
-public class ChipAudio implements Runnable {
-
-    LoChip loChip;
-
-    public ChipAudio(LoChip loChip) {
-        this.loChip = loChip;
-    }
-
-    @Override
-    public void run() {
-        try {
-            Thread.sleep(1);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-        // todo: audio
-    }
-
+    void write(int offset, byte value);
 }
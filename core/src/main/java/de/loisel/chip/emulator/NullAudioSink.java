@@ -0,0 +1,62 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Discards all samples. Used to run the emulator headless.
+ */
+public class NullAudioSink implements AudioSink {
+    private final boolean realTime;
+    private long nanosPerByte;
+    private long bytesWritten;
+
+    /**
+     * @param realTime if true, write blocks as long as a real device would
+     *                 need to play the samples
+     */
+    public NullAudioSink(boolean realTime) {
+        this.realTime = realTime;
+    }
+
+    public NullAudioSink() {
+        this(true);
+    }
+
+    @Override
+    public void open(AudioFormat format, int bufferSize) {
+        nanosPerByte = (long) (1e9F / (format.getFrameRate() * format.getFrameSize()));
+    }
+
+    @Override
+    public void write(byte[] buffer, int length) {
+        bytesWritten += length;
+        if (realTime)
+            LockSupport.parkNanos(length * nanosPerByte);
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+}
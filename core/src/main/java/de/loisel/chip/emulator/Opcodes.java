@@ -0,0 +1,71 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+/**
+ * Static facts about the Lo-Chip instruction set.
+ */
+final class Opcodes {
+    private static final int[] LENGTH = new int[0x100];
+    private static final boolean[] SIDE_EFFECT_FREE = new boolean[0x100];
+
+    static {
+        for (int op : new int[] {
+                0xE0, 0xEE, 0x11, 0x50, 0x51, 0x62, 0x63, 0x64, 0x65,
+                0x80, 0x8A, 0x81, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87, 0x8E,
+                0xA1, 0xE1, 0xE2, 0xF1, 0xF2, 0xF3, 0xF4, 0xFA, 0xFC, 0xFD, 0xFE,
+                0xD1, 0xAA })
+            LENGTH[op] = 1;
+        for (int op : new int[] { 0x30, 0x31, 0x60, 0x61, 0x70, 0x71, 0xB0, 0xC0, 0xD0 })
+            LENGTH[op] = 2;
+        for (int op : new int[] { 0x10, 0x20, 0xA0 })
+            LENGTH[op] = 3;
+
+        // only read memory, timers and keys, and change registers or jump to I
+        for (int op : new int[] {
+                0x11, 0x30, 0x31, 0x50, 0x51, 0x60, 0x61, 0x62, 0x63, 0x70, 0x71,
+                0x80, 0x8A, 0x81, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87, 0x8E,
+                0xA0, 0xA1, 0xE1, 0xE2, 0xF1, 0xFA, 0xFE })
+            SIDE_EFFECT_FREE[op] = true;
+    }
+
+    private Opcodes() {
+    }
+
+    /**
+     * @return the size of the instruction in bytes, 0 for unknown opcodes
+     */
+    static int length(int opcode) {
+        return LENGTH[opcode];
+    }
+
+    /**
+     * @return true if repeating the instruction cannot change anything
+     * but the registers
+     */
+    static boolean isSideEffectFree(int opcode) {
+        return SIDE_EFFECT_FREE[opcode];
+    }
+
+    /**
+     * @return true if the instruction never continues with the next one
+     */
+    static boolean isUnconditionalJump(int opcode) {
+        return opcode == 0x10 || opcode == 0x20 || opcode == 0xEE
+                || opcode == 0xB0 || opcode == 0xAA;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import java.util.Random;
+
+/**
+ * Hardware RNG: every read returns a new random byte,
+ * a write reseeds the generator with the written value.
+ */
+public class RandomDevice implements MemoryDevice {
+    private final Random random;
+
+    public RandomDevice() {
+        this.random = new Random();
+    }
+
+    public RandomDevice(long seed) {
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public byte read(int offset) {
+        return (byte) random.nextInt(0x100);
+    }
+
+    @Override
+    public void write(int offset, byte value) {
+        random.setSeed(value);
+    }
+}
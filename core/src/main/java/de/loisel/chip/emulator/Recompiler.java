@@ -0,0 +1,280 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Static recompiler from a ROM to the Java source of a {@link CompiledRom}.
+ * <p>
+ * The code is recovered with a control flow walk from the entry word.
+ * Conditional jumps go to the index register, so its value is tracked
+ * as a constant along the walk where it is known. Every reached address
+ * gets a block of straight-line code up to the next jump. Jumps whose
+ * target is only known at run time, like $EE RET, $B0 and jumps through
+ * an unknown index register, go through a switch over the block addresses
+ * and fall back to the interpreter if there is no block.
+ * <p>
+ * $F2 and $AA are left to the interpreter, as they wait for keys or stop the chip.
+ */
+public class Recompiler {
+    private static final int MAX_BLOCK = 64;
+    private static final int UNKNOWN = -1;
+
+    private final byte[] image = new byte[Memory.MEMORY_SIZE];
+    private final int entry;
+    /** value of the index register at the start of each block, or UNKNOWN */
+    private final Map<Integer, Integer> blocks = new HashMap<>();
+
+    private record Instruction(int address, int opcode, int b1, int word) {
+        int next() {
+            return address + Opcodes.length(opcode);
+        }
+    }
+
+    public Recompiler(byte[] rom) {
+        System.arraycopy(rom, 0, image, 0, Math.min(rom.length, image.length));
+        entry = (Byte.toUnsignedInt(image[0]) << 8) | Byte.toUnsignedInt(image[1]);
+        walk();
+    }
+
+    /**
+     * @return the start addresses of the compiled blocks
+     */
+    public SortedSet<Integer> getBlocks() {
+        SortedSet<Integer> starts = new TreeSet<>();
+        for (int start : blocks.keySet()) {
+            if (!decode(start).isEmpty())
+                starts.add(start);
+        }
+        return starts;
+    }
+
+    private void walk() {
+        Deque<Integer> work = new ArrayDeque<>();
+        blocks.put(entry, 0);
+        work.add(entry);
+        while (!work.isEmpty()) {
+            int start = work.poll();
+            int index = blocks.get(start);
+            List<Instruction> block = decode(start);
+
+            int next = start;
+            for (Instruction in : block) {
+                if (in.opcode == 0xA0)
+                    index = in.word;
+                else if (in.opcode == 0xA1 || in.opcode == 0xFA)
+                    index = UNKNOWN;
+                next = in.next();
+            }
+            Instruction last = block.isEmpty() ? null : block.get(block.size() - 1);
+            if (last != null && isJump(last.opcode)) {
+                switch (last.opcode) {
+                    case 0x10 -> reach(work, last.word, index);
+                    case 0x20 -> {
+                        reach(work, last.word, index);
+                        reach(work, next, UNKNOWN);
+                    }
+                    case 0xB0, 0xEE -> { }
+                    default -> {
+                        reach(work, next, index);
+                        if (index != UNKNOWN)
+                            reach(work, index, index);
+                    }
+                }
+            } else if (next < Memory.MEMORY_SIZE) {
+                int opcode = Byte.toUnsignedInt(image[next]);
+                if (opcode == 0xF2)
+                    reach(work, next + 1, index);
+                else if (block.size() == MAX_BLOCK)
+                    reach(work, next, index);
+            }
+        }
+    }
+
+    private void reach(Deque<Integer> work, int address, int index) {
+        if (address >= Memory.MEMORY_SIZE)
+            return;
+        Integer old = blocks.get(address);
+        if (old == null) {
+            blocks.put(address, index);
+            work.add(address);
+        } else if (old != UNKNOWN && old != index) {
+            blocks.put(address, UNKNOWN);
+            work.add(address);
+        }
+    }
+
+    /**
+     * @return the instructions from start up to and including the next
+     * jump, or up to the next instruction left to the interpreter
+     */
+    private List<Instruction> decode(int start) {
+        List<Instruction> block = new ArrayList<>();
+        int pc = start;
+        while (block.size() < MAX_BLOCK && pc < Memory.MEMORY_SIZE) {
+            int opcode = Byte.toUnsignedInt(image[pc]);
+            int length = Opcodes.length(opcode);
+            if (length == 0 || opcode == 0xF2 || opcode == 0xAA || pc + length > Memory.MEMORY_SIZE)
+                break;
+            int b1 = length > 1 ? Byte.toUnsignedInt(image[pc + 1]) : 0;
+            int word = length > 2 ? b1 << 8 | Byte.toUnsignedInt(image[pc + 2]) : 0;
+            Instruction in = new Instruction(pc, opcode, b1, word);
+            block.add(in);
+            pc = in.next();
+            if (isJump(opcode))
+                break;
+        }
+        return block;
+    }
+
+    private static boolean isJump(int opcode) {
+        return switch (opcode) {
+            case 0x10, 0x11, 0x20, 0x30, 0x31, 0x50, 0x51, 0xB0, 0xE1, 0xE2, 0xEE -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * @param className fully qualified name of the generated class
+     */
+    public String generate(String className) {
+        int dot = className.lastIndexOf('.');
+        StringBuilder out = new StringBuilder();
+        out.append("// Generated by ").append(Recompiler.class.getName()).append(", do not edit.\n");
+        if (dot > 0)
+            out.append("package ").append(className, 0, dot).append(";\n\n");
+        out.append("import de.loisel.chip.emulator.CompiledRom;\n\n");
+        out.append("public class ").append(className.substring(dot + 1)).append(" extends CompiledRom {\n\n");
+
+        SortedSet<Integer> starts = getBlocks();
+        out.append("    @Override\n");
+        out.append("    protected boolean execute(int address) {\n");
+        out.append("        switch (address) {\n");
+        for (int start : starts)
+            out.append("            case ").append(hex(start)).append(": return block").append(name(start)).append("();\n");
+        out.append("            default: return false;\n");
+        out.append("        }\n");
+        out.append("    }\n");
+
+        for (int start : starts) {
+            List<Instruction> block = decode(start);
+            out.append("\n    private boolean block").append(name(start)).append("() {\n");
+            out.append("        if (!enter(").append(block.size()).append("))\n");
+            out.append("            return false;\n");
+            int next = start;
+            boolean jumped = false;
+            for (Instruction in : block) {
+                next = in.next();
+                jumped = isJump(in.opcode);
+                out.append("        ").append(statement(in)).append('\n');
+            }
+            if (!jumped)
+                out.append("        programCounter = (short) ").append(hex(next)).append(";\n");
+            out.append("        return true;\n");
+            out.append("    }\n");
+        }
+        out.append("}\n");
+        return out.toString();
+    }
+
+    private static String statement(Instruction in) {
+        String b1 = "(byte) " + String.format("0x%02X", in.b1);
+        String word = "(short) " + hex(in.word);
+        String next = "(short) " + hex(in.next());
+        return switch (in.opcode) {
+            case 0xE0 -> "frameBuffer.clearBuffer();";
+            case 0xEE -> "programCounter = stack.pop();";
+            case 0x10 -> "programCounter = " + word + ";";
+            case 0x11 -> "programCounter = f ? indexReg : " + next + ";";
+            case 0x20 -> "stack.push(" + next + "); programCounter = " + word + ";";
+            case 0x30 -> "programCounter = rX == " + b1 + " ? indexReg : " + next + ";";
+            case 0x31 -> "programCounter = rX != " + b1 + " ? indexReg : " + next + ";";
+            case 0x50 -> "programCounter = rX == rY ? indexReg : " + next + ";";
+            case 0x51 -> "programCounter = rX != rY ? indexReg : " + next + ";";
+            case 0x60 -> "rX = " + b1 + ";";
+            case 0x61 -> "rY = " + b1 + ";";
+            case 0x62 -> "rX = memory.fetch(indexReg);";
+            case 0x63 -> "rY = memory.fetch(indexReg);";
+            case 0x64 -> "memory.write(indexReg, rX);";
+            case 0x65 -> "memory.write(indexReg, rY);";
+            case 0x70 -> "rX += " + b1 + ";";
+            case 0x71 -> "rY += " + b1 + ";";
+            case 0x80 -> "rX = rY;";
+            case 0x8A -> "rY = rX;";
+            case 0x81 -> "rX |= rY;";
+            case 0x82 -> "rX &= rY;";
+            case 0x83 -> "rX ^= rY;";
+            case 0x84 -> "f = (rX & 0xFF) + (rY & 0xFF) > 255; rX += rY;";
+            case 0x85 -> "f = (rY & 0xFF) < (rX & 0xFF); rX -= rY;";
+            case 0x86 -> "f = (rX & 1) != 0; rX = (byte) ((rX & 0xFF) >>> 1);";
+            case 0x87 -> "f = (rX & 0xFF) < (rY & 0xFF); rX = (byte) (rY - rX);";
+            case 0x8E -> "f = (rX & 0x80) != 0; rX = (byte) (rX << 1);";
+            case 0xA0 -> "indexReg = " + word + ";";
+            case 0xA1 -> "indexReg = (short) (rX << 8 | rY);";
+            case 0xB0 -> "programCounter = (short) (" + in.b1 + " + (rX & 0xFF));";
+            case 0xC0 -> "rX = (byte) (random() & " + b1 + ");";
+            case 0xD0 -> "memory.fetchArray(indexReg, sprite, " + in.b1 + "); f = frameBuffer.setSprite(sprite, "
+                    + in.b1 + ", rX, rY);";
+            case 0xD1 -> "memory.fetchArray(indexReg, sprite, 32); f = frameBuffer.setSprite16(sprite, rX, rY);";
+            case 0xE1 -> "programCounter = keyboard.isDown(rX) ? indexReg : " + next + ";";
+            case 0xE2 -> "programCounter = !keyboard.isDown(rX) ? indexReg : " + next + ";";
+            case 0xF1 -> "rX = (byte) delayTimer;";
+            case 0xF3 -> "delayTimer = rX;";
+            case 0xF4 -> "setSoundTimer(rX);";
+            case 0xFA -> "indexReg += rX;";
+            case 0xFC -> "memory.write(indexReg, (byte) ((rX & 0xFF) / 100)); "
+                    + "memory.write((short) (indexReg + 1), (byte) ((rX & 0xFF) % 100 / 10)); "
+                    + "memory.write((short) (indexReg + 2), (byte) ((rX & 0xFF) % 10));";
+            case 0xFD -> "memory.write(indexReg, rX); memory.write((short) (indexReg + 1), rY);";
+            case 0xFE -> "rX = memory.fetch(indexReg); rY = memory.fetch((short) (indexReg + 1));";
+            default -> throw new IllegalStateException("opcode " + Integer.toHexString(in.opcode));
+        } + String.format(" // %04X", in.address);
+    }
+
+    private static String hex(int value) {
+        return String.format("0x%04X", value);
+    }
+
+    private static String name(int address) {
+        return String.format("%04X", address);
+    }
+
+    /**
+     * Usage: Recompiler &lt;rom&gt; &lt;class name&gt; &lt;source dir&gt;
+     */
+    public static void main(String[] args) throws IOException {
+        if (args == null || args.length != 3) {
+            throw new RuntimeException("Usage: Recompiler <rom> <class name> <source dir>");
+        }
+        Recompiler recompiler = new Recompiler(Files.readAllBytes(Path.of(args[0])));
+        Path file = Path.of(args[2], args[1].replace('.', '/') + ".java");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, recompiler.generate(args[1]));
+        System.out.println("Compiled " + recompiler.getBlocks().size() + " blocks to " + file);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+/**
+ * Outcome of {@link LoChip#runFor(long)}.
+ *
+ * @param reason why the run ended
+ * @param instructions executed instructions, including skipped idle loops
+ * @param skippedInstructions instructions of idle loops that were skipped
+ * @param illegalOpcodes unknown opcodes fetched during the run
+ * @param fault the opcode that stopped the run, null unless the reason is {@link Reason#FAULT}
+ */
+public record RunResult(Reason reason, long instructions, long skippedInstructions,
+                        long illegalOpcodes, Fault fault) {
+
+    public enum Reason {
+        /** The program executed $AA EXIT. */
+        EXIT,
+        /** The instruction budget ran out. */
+        BUDGET,
+        /** An illegal opcode halted the chip. */
+        FAULT,
+        /** The {@link Watchdog} found the chip in an endless loop. */
+        HUNG,
+        /** The debugger stopped at a breakpoint, watchpoint or condition. */
+        BREAKPOINT,
+        /** The run was stopped from outside, e.g. an interrupted $F2. */
+        STOPPED
+    }
+}
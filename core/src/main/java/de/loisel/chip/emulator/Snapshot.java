@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+/**
+ * Copy of the whole machine state of a {@link LoChip}: memory, registers,
+ * timers, stack and frame buffer. Keys and mapped devices are not part of it.
+ */
+public final class Snapshot {
+    final byte[] memory;
+    final short[] stack;
+    final int stackPointer;
+    final long[] pixels;
+    final byte rX;
+    final byte rY;
+    final boolean f;
+    final short programCounter;
+    final short indexReg;
+    final int delayTimer;
+    final int soundTimer;
+    final long untilTick;
+    final boolean exited;
+    final long memoryHash;
+    final long pixelHash;
+    final long stackHash;
+    private final long hash;
+
+    Snapshot(byte[] memory, short[] stack, int stackPointer, long[] pixels,
+             byte rX, byte rY, boolean f, short programCounter, short indexReg,
+             int delayTimer, int soundTimer, long untilTick, boolean exited,
+             long memoryHash, long pixelHash, long stackHash, long hash) {
+        this.memory = memory;
+        this.stack = stack;
+        this.stackPointer = stackPointer;
+        this.pixels = pixels;
+        this.rX = rX;
+        this.rY = rY;
+        this.f = f;
+        this.programCounter = programCounter;
+        this.indexReg = indexReg;
+        this.delayTimer = delayTimer;
+        this.soundTimer = soundTimer;
+        this.untilTick = untilTick;
+        this.exited = exited;
+        this.memoryHash = memoryHash;
+        this.pixelHash = pixelHash;
+        this.stackHash = stackHash;
+        this.hash = hash;
+    }
+
+    /**
+     * @return {@link LoChip#stateHash()} at the time of the snapshot
+     */
+    public long stateHash() {
+        return hash;
+    }
+
+    public Registers getRegisters() {
+        return new Registers(rX, rY, f, programCounter, indexReg,
+                delayTimer, soundTimer, (byte) stackPointer);
+    }
+
+    public boolean hasExited() {
+        return exited;
+    }
+}
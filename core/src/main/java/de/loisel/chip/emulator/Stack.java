@@ -20,6 +20,8 @@ public class Stack {
     private static final int STACK_SIZE = 256;
     private final short[] stack = new short[STACK_SIZE];
     private int stackPointer = 0;
+    /** XOR of {@link StateHash#stack} over the slots */
+    private long hash = 0;
 
     public byte getStackPointer() {
         return (byte)stackPointer;
@@ -29,9 +31,31 @@ public class Stack {
         stackPointer++;
         if (stackPointer >= STACK_SIZE) // stack overflow
             stackPointer = 0;
+        hash ^= StateHash.stack(stackPointer, stack[stackPointer]) ^ StateHash.stack(stackPointer, addr);
         stack[stackPointer] = addr;
     }
 
+    short[] copyStack() {
+        return stack.clone();
+    }
+
+    void restore(short[] content, int pointer, long contentHash) {
+        System.arraycopy(content, 0, stack, 0, STACK_SIZE);
+        stackPointer = pointer;
+        hash = contentHash;
+    }
+
+    /**
+     * @return hash of the slots without the stack pointer
+     */
+    long contentHash() {
+        return hash;
+    }
+
+    int getPointer() {
+        return stackPointer;
+    }
+
     public short pop() {
         short addr = stack[stackPointer];
         stackPointer--;
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+/**
+ * Zobrist style keys for the incremental state hashes. The hash of a
+ * component is the XOR of the keys of all its non-zero entries, so a
+ * write updates it with {@code hash ^= key(old) ^ key(new)}.
+ */
+final class StateHash {
+
+    private StateHash() {
+    }
+
+    /**
+     * Murmur3 finalizer, a bijection with {@code mix(0) == 0}.
+     */
+    static long mix(long v) {
+        v ^= v >>> 33;
+        v *= 0xFF51AFD7ED558CCDL;
+        v ^= v >>> 33;
+        v *= 0xC4CEB9FE1A85EC53L;
+        v ^= v >>> 33;
+        return v;
+    }
+
+    static long memory(int address, byte value) {
+        return value == 0 ? 0 : mix((long) address << 8 | Byte.toUnsignedLong(value));
+    }
+
+    static long stack(int slot, short value) {
+        return value == 0 ? 0 : mix(1L << 40 | (long) slot << 16 | Short.toUnsignedLong(value));
+    }
+
+    static long word(int index, long word) {
+        return word == 0 ? 0 : mix(word ^ mix(2L << 40 | index));
+    }
+
+    static long combine(long h, long v) {
+        return mix(h * 0x9E3779B97F4A7C15L + v);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Steps a batch of emulators in lockstep, one frame at a time.
+ * <p>
+ * All instances run in virtual time, a frame is one tick of the 60 Hz
+ * timers. After every step the frame buffers of all instances are in one
+ * direct buffer: instance i starts at byte {@code i * frameBytes()} and
+ * is laid out as described in {@link FrameBuffer#copyTo}, as longs in
+ * native byte order.
+ */
+public class VectorEnvironment {
+    public static final long DEFAULT_INSTRUCTIONS_PER_FRAME = 10000;
+
+    private final Program program;
+    private final int width;
+    private final int height;
+    private final long instructionsPerFrame;
+    private final ForkJoinPool pool;
+
+    private final LoChip[] chips;
+    private final FrameBuffer[] frameBuffers;
+    private final Keyboard[] keyboards;
+    private final ByteBuffer observations;
+    private final LongBuffer[] views;
+    private final int frameBytes;
+
+    private int[] keyMasks;
+
+    public VectorEnvironment(Program program, int count, int width, int height,
+                             long instructionsPerFrame, ForkJoinPool pool) {
+        this.program = program;
+        this.width = width;
+        this.height = height;
+        this.instructionsPerFrame = instructionsPerFrame;
+        this.pool = pool;
+
+        chips = new LoChip[count];
+        frameBuffers = new FrameBuffer[count];
+        keyboards = new Keyboard[count];
+        for (int i = 0; i < count; i++)
+            reset(i);
+
+        frameBytes = frameBuffers[0].wordCount() * Long.BYTES;
+        observations = ByteBuffer.allocateDirect(count * frameBytes).order(ByteOrder.nativeOrder());
+        views = new LongBuffer[count];
+        for (int i = 0; i < count; i++)
+            views[i] = observations.slice(i * frameBytes, frameBytes).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+
+    public VectorEnvironment(Program program, int count) {
+        this(program, count, 256, 144, DEFAULT_INSTRUCTIONS_PER_FRAME, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Sets the keys of every instance and runs all instances that did not
+     * exit for one frame.
+     * @param keyMasks bit n sets key n, one mask per instance
+     */
+    public void step(int[] keyMasks) {
+        if (keyMasks.length != chips.length)
+            throw new IllegalArgumentException("Expected " + chips.length + " key masks");
+        this.keyMasks = keyMasks;
+        pool.invoke(new StepTask(0, chips.length));
+    }
+
+    /**
+     * Restarts the program of one instance.
+     */
+    public void reset(int index) {
+        frameBuffers[index] = new FrameBuffer(width, height);
+        keyboards[index] = new Keyboard();
+        LoChip chip = new LoChip(program, frameBuffers[index], keyboards[index]);
+        chip.setVirtualTime(instructionsPerFrame);
+        chip.setKeyWaitPolling(true);
+        chip.setVerbose(false);
+        chips[index] = chip;
+    }
+
+    /**
+     * @return read-only view of the frames of all instances
+     */
+    public ByteBuffer observations() {
+        return observations.asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return read-only view of the frame of one instance
+     */
+    public ByteBuffer observation(int index) {
+        return observations.slice(index * frameBytes, frameBytes)
+                .asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+    }
+
+    public int frameBytes() {
+        return frameBytes;
+    }
+
+    public boolean isDone(int index) {
+        return chips[index].hasExited();
+    }
+
+    public int size() {
+        return chips.length;
+    }
+
+    public LoChip getChip(int index) {
+        return chips[index];
+    }
+
+    private void stepInstance(int i) {
+        LoChip chip = chips[i];
+        if (!chip.hasExited()) {
+            keyboards[i].setMask(keyMasks[i]);
+            chip.run(instructionsPerFrame);
+        }
+        views[i].clear();
+        frameBuffers[i].copyTo(views[i]);
+    }
+
+    private class StepTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        StepTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                stepInstance(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new StepTask(from, mid), new StepTask(mid, to));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+/**
+ * Detects runs that are stuck in a loop.
+ * <p>
+ * At every timer tick the chip hands in its {@link LoChip#stateHash()}.
+ * With the same keys, no $C0 RND and no mapped devices the state after
+ * a tick only depends on the state after the previous one, so the first
+ * repeated state proves an endless cycle. Repeats are found with Brent's
+ * algorithm, which keeps a single reference state.
+ */
+public class Watchdog {
+
+    /**
+     * @param address program counter when the hang was detected
+     * @param period instructions between two visits of the same state
+     * @param cycle instructions executed before the verdict
+     */
+    public record Hang(short address, long period, long cycle) {
+
+        @Override
+        public String toString() {
+            return String.format("hung at address %04X, cycle of %d instructions",
+                    Short.toUnsignedInt(address), period);
+        }
+    }
+
+    private final int sampleInterval;
+    private final int threshold;
+
+    private long ticks;
+    private int lastKeys;
+    private long lastRandomDraws;
+    private long reference;
+    private long referenceCycle;
+    private long power;
+    private long length;
+    private int repeats;
+    private Hang verdict;
+
+    /**
+     * @param sampleInterval timer ticks between two samples
+     * @param threshold how often the repeated state has to come back before
+     *                  the run is stopped, 1 stops at the first repeat
+     */
+    public Watchdog(int sampleInterval, int threshold) {
+        if (sampleInterval <= 0 || threshold <= 0)
+            throw new IllegalArgumentException("sampleInterval and threshold must be positive");
+        this.sampleInterval = sampleInterval;
+        this.threshold = threshold;
+        restart();
+    }
+
+    public Watchdog() {
+        this(1, 2);
+    }
+
+    /**
+     * @return the hang that stopped the last run, null if there was none
+     */
+    public Hang getVerdict() {
+        return verdict;
+    }
+
+    /**
+     * Forgets all samples, called when a run starts.
+     */
+    void restart() {
+        ticks = 0;
+        repeats = 0;
+        power = 1;
+        length = 0;
+        referenceCycle = -1;
+        verdict = null;
+    }
+
+    /**
+     * @param deterministic false if the next state may not follow from this one
+     * @return true if the chip is hung
+     */
+    boolean sample(long hash, int keys, long randomDraws, boolean deterministic,
+                   long cycle, short programCounter) {
+        if (++ticks % sampleInterval != 0)
+            return false;
+        if (!deterministic || keys != lastKeys || randomDraws != lastRandomDraws
+                || referenceCycle < 0) {
+            lastKeys = keys;
+            lastRandomDraws = randomDraws;
+            repeats = 0;
+            power = 1;
+            length = 0;
+            reference = hash;
+            referenceCycle = cycle;
+            return false;
+        }
+
+        if (hash == reference) {
+            long period = cycle - referenceCycle;
+            referenceCycle = cycle;
+            if (++repeats >= threshold) {
+                verdict = new Hang(programCounter, period, cycle);
+                return true;
+            }
+            return false;
+        }
+        if (repeats == 0 && ++length == power) {
+            reference = hash;
+            referenceCycle = cycle;
+            power <<= 1;
+            length = 0;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.remote;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format shared by {@link RemoteServer} and {@link RemoteClient}.
+ * <p>
+ * Client packets: {@code ATTACH int sessionId}, {@code KEY_DOWN byte key},
+ * {@code KEY_UP byte key}.<br>
+ * Server packets: {@code INFO short width, short height},
+ * {@code FRAME int frameNo, int length, byte[length] delta}.
+ * <p>
+ * A frame is the packed frame buffer (one bit per pixel) XORed with the
+ * previous frame sent to the same client and run-length encoded as
+ * pairs of {@code (run, value)}.
+ */
+final class FrameCodec {
+    static final byte ATTACH = 0x01;
+    static final byte KEY_DOWN = 0x02;
+    static final byte KEY_UP = 0x03;
+
+    static final byte INFO = 0x10;
+    static final byte FRAME = 0x11;
+
+    static final int INFO_SIZE = 5;
+    static final int FRAME_HEADER_SIZE = 9;
+
+    private static final int MAX_RUN = 0xFF;
+
+    private FrameCodec() {
+    }
+
+    static int maxFrameSize(int packedSize) {
+        return FRAME_HEADER_SIZE + 2 * packedSize;
+    }
+
+    static void putFrame(ByteBuffer out, int frameNo, byte[] frame, byte[] reference) {
+        out.put(FRAME);
+        out.putInt(frameNo);
+        int lengthPos = out.position();
+        out.putInt(0);
+        int start = out.position();
+        encodeDelta(frame, reference, out);
+        out.putInt(lengthPos, out.position() - start);
+    }
+
+    static void encodeDelta(byte[] frame, byte[] reference, ByteBuffer out) {
+        int i = 0;
+        while (i < frame.length) {
+            byte value = (byte) (frame[i] ^ reference[i]);
+            int run = 1;
+            while (run < MAX_RUN && i + run < frame.length
+                    && (byte) (frame[i + run] ^ reference[i + run]) == value)
+                run++;
+            out.put((byte) run);
+            out.put(value);
+            i += run;
+        }
+    }
+
+    /**
+     * XORs {@code length} bytes of encoded delta onto the frame.
+     */
+    static void applyDelta(ByteBuffer in, int length, byte[] frame) {
+        int end = in.position() + length;
+        int i = 0;
+        while (in.position() < end) {
+            int run = Byte.toUnsignedInt(in.get());
+            byte value = in.get();
+            for (int k = 0; k < run; k++)
+                frame[i++] ^= value;
+        }
+    }
+}
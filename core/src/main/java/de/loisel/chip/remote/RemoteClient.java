@@ -0,0 +1,119 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.remote;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Headless reference client for {@link RemoteServer}.
+ * Keeps a copy of the remote frame and sends key presses.
+ */
+public class RemoteClient implements Closeable {
+    private final SocketChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(FrameCodec.FRAME_HEADER_SIZE);
+    private final ByteBuffer keyPacket = ByteBuffer.allocate(2);
+    private final int width;
+    private final int height;
+    private final byte[] frame;
+    private final ByteBuffer payload;
+    private int frameNo = -1;
+
+    public RemoteClient(InetSocketAddress address, int sessionId) throws IOException {
+        channel = SocketChannel.open(address);
+        ByteBuffer attach = ByteBuffer.allocate(5);
+        attach.put(FrameCodec.ATTACH).putInt(sessionId).flip();
+        while (attach.hasRemaining())
+            channel.write(attach);
+
+        ByteBuffer info = ByteBuffer.allocate(FrameCodec.INFO_SIZE);
+        readFully(info);
+        if (info.get() != FrameCodec.INFO)
+            throw new IOException("Expected INFO packet");
+        width = info.getShort();
+        height = info.getShort();
+        frame = new byte[(width * height + 7) / 8];
+        payload = ByteBuffer.allocate(FrameCodec.maxFrameSize(frame.length));
+    }
+
+    public void pressKey(byte key) throws IOException {
+        sendKey(FrameCodec.KEY_DOWN, key);
+    }
+
+    public void releaseKey(byte key) throws IOException {
+        sendKey(FrameCodec.KEY_UP, key);
+    }
+
+    /**
+     * Blocks until the next frame arrives and applies it.
+     * @return the number of the frame
+     */
+    public int receiveFrame() throws IOException {
+        header.clear();
+        readFully(header);
+        if (header.get() != FrameCodec.FRAME)
+            throw new IOException("Expected FRAME packet");
+        frameNo = header.getInt();
+        int length = header.getInt();
+
+        payload.clear().limit(length);
+        readFully(payload);
+        FrameCodec.applyDelta(payload, length, frame);
+        return frameNo;
+    }
+
+    public boolean getPixel(int x, int y) {
+        int bit = y * width + x;
+        return (frame[bit >>> 3] & (0x80 >>> (bit & 7))) != 0;
+    }
+
+    public int getFrameNo() {
+        return frameNo;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void sendKey(byte type, byte key) throws IOException {
+        keyPacket.clear();
+        keyPacket.put(type).put(key).flip();
+        while (keyPacket.hasRemaining())
+            channel.write(keyPacket);
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0)
+                throw new EOFException();
+        }
+        buffer.flip();
+    }
+}
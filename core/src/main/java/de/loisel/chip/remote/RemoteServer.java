@@ -0,0 +1,308 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.remote;
+
+import de.loisel.chip.emulator.FrameBuffer;
+import de.loisel.chip.emulator.Keyboard;
+import de.loisel.chip.emulator.LoChip;
+import de.loisel.chip.emulator.Program;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves any number of emulator sessions to thin clients from a single
+ * selector thread.
+ * <p>
+ * Once per tick every session with clients packs its frame buffer. A client
+ * gets the newest frame as a delta against the last frame it received, but
+ * only when its previous frame has been written completely. Slow clients
+ * therefore skip frames instead of queueing them, and each connection holds
+ * at most one encoded frame.
+ */
+public class RemoteServer implements Runnable, Closeable {
+    public static final long DEFAULT_TICK_NANOS = (long) (1e9F / 60L);
+
+    private static final int IN_BUFFER_SIZE = 64;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Map<Integer, RemoteSession> sessions = new ConcurrentHashMap<>();
+    private final long tickNanos;
+
+    private volatile boolean closed;
+    private boolean started;
+
+    public RemoteServer(InetSocketAddress address, long tickNanos) throws IOException {
+        this.tickNanos = tickNanos;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public RemoteServer(InetSocketAddress address) throws IOException {
+        this(address, DEFAULT_TICK_NANOS);
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    public void addSession(RemoteSession session) {
+        sessions.put(session.getId(), session);
+    }
+
+    /**
+     * Clients attached to the session are disconnected on the next tick.
+     */
+    public void removeSession(int id) {
+        sessions.remove(id);
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (closed)
+                return;
+            started = true;
+        }
+        long nextTick = System.nanoTime();
+        try {
+            while (!closed) {
+                long wait = nextTick - System.nanoTime();
+                if (wait > 0)
+                    selector.select(Math.max(1, wait / 1_000_000));
+                else
+                    selector.selectNow();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    handle(key);
+                }
+
+                if (System.nanoTime() - nextTick >= 0) {
+                    tick();
+                    nextTick += tickNanos;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeChannels();
+        }
+    }
+
+    /**
+     * Stops the server. The channels are closed by the server thread
+     * when it leaves {@link #run()}.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (!started) {
+                closeChannels();
+                return;
+            }
+        }
+        selector.wakeup();
+    }
+
+    private void closeChannels() {
+        try {
+            for (SelectionKey key : selector.keys())
+                key.channel().close();
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        try {
+            if (!key.isValid())
+                return;
+            if (key.isAcceptable())
+                accept();
+            else {
+                if (key.isReadable())
+                    read(key);
+                if (key.isValid() && key.isWritable())
+                    flush(key);
+            }
+        } catch (IOException e) {
+            disconnect(key);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null)
+            return;
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, new Connection());
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Connection conn = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        if (channel.read(conn.in) < 0) {
+            disconnect(key);
+            return;
+        }
+        conn.in.flip();
+        while (conn.in.hasRemaining()) {
+            byte type = conn.in.get(conn.in.position());
+            if (type == FrameCodec.ATTACH) {
+                if (conn.in.remaining() < 5)
+                    break;
+                conn.in.get();
+                attach(key, conn, conn.in.getInt());
+            } else if (type == FrameCodec.KEY_DOWN || type == FrameCodec.KEY_UP) {
+                if (conn.in.remaining() < 2)
+                    break;
+                conn.in.get();
+                byte k = conn.in.get();
+                if (conn.session != null) {
+                    if (type == FrameCodec.KEY_DOWN)
+                        conn.session.getKeyboard().set(k);
+                    else
+                        conn.session.getKeyboard().unset(k);
+                }
+            } else {
+                throw new IOException("Unknown packet " + type);
+            }
+        }
+        conn.in.compact();
+    }
+
+    private void attach(SelectionKey key, Connection conn, int sessionId) throws IOException {
+        RemoteSession session = sessions.get(sessionId);
+        if (session == null || conn.session != null)
+            throw new IOException("Cannot attach to session " + sessionId);
+        FrameBuffer fb = session.getFrameBuffer();
+        conn.session = session;
+        conn.lastSent = new byte[fb.packedSize()];
+        conn.out = ByteBuffer.allocate(FrameCodec.maxFrameSize(fb.packedSize()));
+        session.clients++;
+
+        conn.out.put(FrameCodec.INFO);
+        conn.out.putShort((short) fb.getWidth());
+        conn.out.putShort((short) fb.getHeight());
+        conn.out.flip();
+        flush(key);
+    }
+
+    private void flush(SelectionKey key) throws IOException {
+        Connection conn = (Connection) key.attachment();
+        ((SocketChannel) key.channel()).write(conn.out);
+        if (conn.out.hasRemaining()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } else {
+            conn.out.clear();
+            conn.out.limit(0);
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void tick() {
+        for (RemoteSession session : sessions.values()) {
+            if (session.clients > 0)
+                session.refresh();
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (!(key.attachment() instanceof Connection conn) || !key.isValid())
+                continue;
+            RemoteSession session = conn.session;
+            if (session == null)
+                continue;
+            if (sessions.get(session.getId()) != session) {
+                disconnect(key);
+                continue;
+            }
+            if (conn.out.hasRemaining() || conn.sentFrame == session.frameNo())
+                continue;
+
+            byte[] frame = session.frame();
+            conn.out.clear();
+            FrameCodec.putFrame(conn.out, session.frameNo(), frame, conn.lastSent);
+            conn.out.flip();
+            System.arraycopy(frame, 0, conn.lastSent, 0, frame.length);
+            conn.sentFrame = session.frameNo();
+            try {
+                flush(key);
+            } catch (IOException e) {
+                disconnect(key);
+            }
+        }
+    }
+
+    private void disconnect(SelectionKey key) {
+        Connection conn = (Connection) key.attachment();
+        if (conn != null && conn.session != null) {
+            conn.session.clients--;
+            conn.session = null;
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // already gone
+        }
+    }
+
+    private static class Connection {
+        final ByteBuffer in = ByteBuffer.allocate(IN_BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(0);
+        RemoteSession session;
+        byte[] lastSent;
+        int sentFrame = -1;
+    }
+
+    /**
+     * Starts one session per ROM, numbered from 0.
+     * Arguments: port rom...
+     */
+    public static void main(String[] args) throws IOException {
+        if (args == null || args.length < 2) {
+            throw new RuntimeException("Usage: RemoteServer <port> <rom>...");
+        }
+        RemoteServer server = new RemoteServer(new InetSocketAddress(Integer.parseInt(args[0])));
+        for (int i = 1; i < args.length; i++) {
+            FrameBuffer frameBuffer = new FrameBuffer(256, 144);
+            Keyboard keyboard = new Keyboard();
+            LoChip chip = new LoChip(new Program(args[i]), frameBuffer, keyboard);
+            server.addSession(new RemoteSession(i - 1, frameBuffer, keyboard));
+            new Thread(chip, "Chip Thread " + (i - 1)).start();
+        }
+        System.out.println("Serving " + (args.length - 1) + " sessions on port " + server.getPort());
+        server.run();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.remote;
+
+import de.loisel.chip.emulator.FrameBuffer;
+import de.loisel.chip.emulator.Keyboard;
+
+import java.util.Arrays;
+
+/**
+ * One emulator instance served by {@link RemoteServer}.
+ * The frame is packed once per server tick and shared by all clients.
+ */
+public class RemoteSession {
+    private final int id;
+    private final FrameBuffer frameBuffer;
+    private final Keyboard keyboard;
+
+    private byte[] frame;
+    private byte[] scratch;
+    private int frameNo = 0;
+    int clients = 0;
+
+    public RemoteSession(int id, FrameBuffer frameBuffer, Keyboard keyboard) {
+        this.id = id;
+        this.frameBuffer = frameBuffer;
+        this.keyboard = keyboard;
+        this.frame = new byte[frameBuffer.packedSize()];
+        this.scratch = new byte[frameBuffer.packedSize()];
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public FrameBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+
+    public Keyboard getKeyboard() {
+        return keyboard;
+    }
+
+    /**
+     * Packs the current frame buffer and starts a new frame if it changed.
+     */
+    void refresh() {
+        frameBuffer.packBuffer(scratch);
+        if (Arrays.equals(scratch, frame))
+            return;
+        byte[] tmp = frame;
+        frame = scratch;
+        scratch = tmp;
+        frameNo++;
+    }
+
+    byte[] frame() {
+        return frame;
+    }
+
+    int frameNo() {
+        return frameNo;
+    }
+}
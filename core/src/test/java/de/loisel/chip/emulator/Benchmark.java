@@ -0,0 +1,201 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timing comparisons that are too noisy to assert in the unit tests.
+ * Run with {@code gradle :core:benchmark}, optionally naming the benchmarks
+ * to run, e.g. {@code --args='fusion'}.
+ */
+class Benchmark {
+    private static final int WARMUP = 10;
+    private static final int RUNS = 21;
+
+    private static final Map<String, Runnable> BENCHMARKS = new LinkedHashMap<>();
+
+    /** Keeps the results of the memory loops alive. */
+    static volatile long sink;
+
+    static {
+        BENCHMARKS.put("fusion", Benchmark::fusion);
+        BENCHMARKS.put("sprite", Benchmark::sprite);
+        BENCHMARKS.put("memory", Benchmark::memory);
+        BENCHMARKS.put("recompiler", Benchmark::recompiler);
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            BENCHMARKS.values().forEach(Runnable::run);
+            return;
+        }
+        for (String name : args) {
+            Runnable benchmark = BENCHMARKS.get(name);
+            if (benchmark == null)
+                throw new IllegalArgumentException("Unknown benchmark " + name + ", known: " + BENCHMARKS.keySet());
+            benchmark.run();
+        }
+    }
+
+    /**
+     * Superinstructions on the counter loop, whose body contains the
+     * sequences fused in the corpus ROMs.
+     */
+    private static void fusion() {
+        Program program = new Program(SuperinstructionTest.COUNTER_LOOP);
+        report("fusion", "plain", median(() -> runToEnd(program, false)),
+                "fused", median(() -> runToEnd(program, true)));
+    }
+
+    /**
+     * 16x16 sprites drawn with one $D1 against two 8x16 $D0.
+     */
+    private static void sprite() {
+        int images = 200000;
+        report("sprite", "2x $D0", median(() -> drawImages(SpriteTest.D0_LOOP, 7, images)),
+                "$D1", median(() -> drawImages(SpriteTest.D1_LOOP, 3, images)));
+    }
+
+    private static void drawImages(byte[] code, int instructionsPerImage, int images) {
+        SpriteTest.newChip(code, new FrameBuffer(256, 144), 100, 50)
+                .run((long) instructionsPerImage * images);
+    }
+
+    /**
+     * RAM accesses through the page table against the array access it
+     * replaced, then a RAM-only ROM with and without an unused device page.
+     */
+    private static void memory() {
+        int accesses = 1 << 22;
+        report("memory", "array", median(() -> sink = accessArray(new ArrayMemory(), accesses)),
+                "pages", median(() -> sink = accessPages(new Memory(), accesses)));
+
+        Program program = new Program(SuperinstructionTest.COUNTER_LOOP);
+        report("memory", "RAM only", median(() -> runToEnd(program, true)),
+                "device", median(() -> runWithDevice(program)));
+    }
+
+    /**
+     * The counter loop recompiled to Java against the interpreter,
+     * both in virtual time as compiled ROMs require it.
+     */
+    private static void recompiler() {
+        CompiledRom rom;
+        try {
+            rom = RecompilerTest.compile(SuperinstructionTest.COUNTER_LOOP);
+        } catch (IOException | ReflectiveOperationException e) {
+            throw new IllegalStateException("could not compile the counter loop", e);
+        }
+        Program program = new Program(SuperinstructionTest.COUNTER_LOOP);
+        report("recompiler", "interpreted", median(() -> virtualTimeChip(program).runFor(Long.MAX_VALUE)),
+                "compiled", median(() -> rom.run(virtualTimeChip(program), Long.MAX_VALUE)));
+    }
+
+    private static LoChip virtualTimeChip(Program program) {
+        LoChip chip = new LoChip(program, new FrameBuffer(256, 144), new Keyboard());
+        chip.setVerbose(false);
+        chip.setVirtualTime(1000);
+        return chip;
+    }
+
+    private static long accessArray(ArrayMemory memory, int accesses) {
+        long sum = 0;
+        for (int i = 0; i < accesses; i++) {
+            short address = (short) (i * 0x9E37);
+            byte value = memory.fetch(address);
+            memory.write(address, (byte) (value + 1));
+            sum += value;
+        }
+        return sum;
+    }
+
+    private static long accessPages(Memory memory, int accesses) {
+        long sum = 0;
+        for (int i = 0; i < accesses; i++) {
+            short address = (short) (i * 0x9E37);
+            byte value = memory.fetch(address);
+            memory.write(address, (byte) (value + 1));
+            sum += value;
+        }
+        return sum;
+    }
+
+    private static void runWithDevice(Program program) {
+        LoChip chip = new LoChip(program, new FrameBuffer(256, 144), new Keyboard());
+        chip.setVerbose(false);
+        chip.mapDevice((short) 0xFF00, 0x100, new RandomDevice(1));
+        chip.run(Long.MAX_VALUE);
+    }
+
+    /**
+     * Data accesses of {@link Memory} before the page table, with the
+     * incremental hash it maintains since.
+     */
+    private static class ArrayMemory {
+        private final byte[] data = new byte[Memory.MEMORY_SIZE];
+        private Memory.AccessWatcher watcher;
+        private long hash;
+
+        byte fetch(short address) {
+            int addr = Short.toUnsignedInt(address);
+            if (watcher != null)
+                watcher.onRead(addr);
+            return data[addr];
+        }
+
+        void write(short address, byte value) {
+            int addr = Short.toUnsignedInt(address);
+            if (watcher != null)
+                watcher.onWrite(addr);
+            hash ^= StateHash.memory(addr, data[addr]) ^ StateHash.memory(addr, value);
+            data[addr] = value;
+        }
+    }
+
+    private static void runToEnd(Program program, boolean fusion) {
+        LoChip chip = new LoChip(program, new FrameBuffer(256, 144), new Keyboard());
+        chip.setVerbose(false);
+        chip.setFusionEnabled(fusion);
+        chip.run(Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the median of {@link #RUNS} timed runs after {@link #WARMUP} untimed ones, in nanoseconds
+     */
+    static long median(Runnable body) {
+        for (int i = 0; i < WARMUP; i++)
+            body.run();
+        long[] times = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            body.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[RUNS / 2];
+    }
+
+    static void report(String name, String baseline, long baselineNanos, String variant, long variantNanos) {
+        System.out.printf("%-10s %s %d us, %s %d us (%+.1f%%)%n", name,
+                baseline, baselineNanos / 1000, variant, variantNanos / 1000,
+                100.0 * (variantNanos - baselineNanos) / baselineNanos);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChipAudioTest {
+
+    private final LoChip chip;
+
+    ChipAudioTest() {
+        this.chip = new LoChip(new Program(new byte[0]), new FrameBuffer(256, 144), new Keyboard());
+    }
+
+    @Test
+    void silentWithoutSoundTimer() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChipAudio audio = new ChipAudio(chip, new StreamAudioSink(out));
+
+        assertFalse(audio.render());
+
+        assertEquals(audio.getBufferSize(), out.size());
+        for (byte b : out.toByteArray())
+            assertEquals(0, b);
+    }
+
+    @Test
+    void toneWhileSoundTimerRuns() {
+        byte[] rom = {
+                (byte) 0x00, (byte) 0x02,   // reset vector
+                (byte) 0x60, (byte) 0x7F,   // LD Rx, 0x7F
+                (byte) 0xF4, (byte) 0xAA    // LD ST, Rx; EXIT
+        };
+        chip.loadProgram(new Program(rom));
+        chip.run(3);
+        assertTrue(chip.isSound());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChipAudio audio = new ChipAudio(chip, new StreamAudioSink(out), 10, 441);
+        assertTrue(audio.render());
+
+        byte[] samples = out.toByteArray();
+        assertEquals(441, samples.length);
+        // 441 Hz at 44.1 kHz: 50 samples high, 50 samples low
+        assertTrue(samples[0] > 0);
+        assertTrue(samples[49] > 0);
+        assertTrue(samples[50] < 0);
+        assertTrue(samples[100] > 0);
+    }
+
+    @Test
+    void nullSinkCountsSamples() {
+        NullAudioSink sink = new NullAudioSink(false);
+        ChipAudio audio = new ChipAudio(chip, sink, 5, ChipAudio.DEFAULT_FREQUENCY);
+        sink.open(audio.getFormat(), audio.getBufferSize());
+
+        audio.render();
+        audio.render();
+
+        assertEquals(2L * audio.getBufferSize(), sink.getBytesWritten());
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DebuggerTest {
+
+    private final LoChip chip;
+    private final Debugger debugger;
+
+    DebuggerTest() {
+        byte[] rom = new byte[0x20];
+        byte[] code = {
+                (byte) 0x00, (byte) 0x03,               // reset vector
+                (byte) 0x00,
+                (byte) 0x60, (byte) 0x05,               // 0x03: LD Rx, 5
+                (byte) 0x20, (byte) 0x00, (byte) 0x10,  // 0x05: CALL 0x0010
+                (byte) 0xA0, (byte) 0x00, (byte) 0x30,  // 0x08: LD I, 0x0030
+                (byte) 0x64,                            // 0x0B: LD I, Rx
+                (byte) 0xAA                             // 0x0C: EXIT
+        };
+        System.arraycopy(code, 0, rom, 0, code.length);
+        rom[0x10] = (byte) 0x70;                        // 0x10: ADD Rx, 1
+        rom[0x11] = (byte) 0x01;
+        rom[0x12] = (byte) 0xEE;                        // 0x12: RET
+
+        this.chip = new LoChip(new Program(rom), new FrameBuffer(), new Keyboard());
+        this.debugger = chip.getDebugger();
+    }
+
+    @Test
+    void breakpointAndContinue() {
+        debugger.addBreakpoint((short) 0x0010);
+
+        chip.run(100);
+        assertEquals(Debugger.StopReason.BREAKPOINT, debugger.getStopReason());
+        assertEquals(0x0010, chip.getProgramCounter());
+        assertEquals(5, chip.getRegisters().rX());
+
+        chip.run(100);
+        assertEquals(6, chip.dumpMemory()[0x0030]);
+    }
+
+    @Test
+    void breakpointHitsAgainAfterMovingOn() {
+        Snapshot start = chip.snapshot();
+        debugger.addBreakpoint((short) 0x0010);
+        chip.run(100);
+        assertEquals(0x0010, chip.getProgramCounter());
+
+        // the next run starts elsewhere and must not skip the breakpoint
+        chip.restore(start);
+        chip.run(100);
+        assertEquals(Debugger.StopReason.BREAKPOINT, debugger.getStopReason());
+        assertEquals(0x0010, chip.getProgramCounter());
+        assertEquals(5, chip.getRegisters().rX());
+    }
+
+    @Test
+    void fastRunClearsResume() {
+        Snapshot start = chip.snapshot();
+        debugger.addBreakpoint((short) 0x0010);
+        chip.run(100);
+        debugger.removeBreakpoint((short) 0x0010);
+        chip.run(1);
+        assertEquals(0x0012, chip.getProgramCounter());
+
+        chip.restore(start);
+        debugger.addBreakpoint((short) 0x0010);
+        chip.run(100);
+        assertEquals(0x0010, chip.getProgramCounter());
+        assertEquals(5, chip.getRegisters().rX());
+    }
+
+    @Test
+    void conditionalBreakpoint() {
+        debugger.addBreakpoint((short) 0x0010, regs -> regs.rX() == 7);
+
+        chip.run(100);
+        assertNull(debugger.getStopReason());
+        assertEquals(6, chip.dumpMemory()[0x0030]);
+    }
+
+    @Test
+    void registerCondition() {
+        debugger.addCondition(regs -> regs.rX() == 6);
+
+        chip.run(100);
+        assertEquals(Debugger.StopReason.CONDITION, debugger.getStopReason());
+        assertEquals(0x0012, chip.getProgramCounter());
+    }
+
+    @Test
+    void stepOverCall() {
+        debugger.addBreakpoint((short) 0x0005);
+        chip.run(100);
+        assertEquals(0x0005, chip.getProgramCounter());
+
+        debugger.stepOver(100);
+        assertEquals(Debugger.StopReason.STEP, debugger.getStopReason());
+        assertEquals(0x0008, chip.getProgramCounter());
+        assertEquals(6, chip.getRegisters().rX());
+
+        debugger.step();
+        assertEquals(0x000B, chip.getProgramCounter());
+    }
+
+    @Test
+    void writeWatchpoint() {
+        debugger.addWatchpoint((short) 0x0030, false, true);
+
+        chip.run(100);
+        assertEquals(Debugger.StopReason.WATCHPOINT, debugger.getStopReason());
+        assertEquals(0x0030, debugger.getStopAddress());
+        assertEquals(0x000C, chip.getProgramCounter());
+    }
+
+    @Test
+    void readWatchpointIgnoresInstructionFetch() {
+        debugger.addWatchpoint((short) 0x0010, true, false);
+
+        chip.run(100);
+        assertNull(debugger.getStopReason());
+        assertEquals(6, chip.dumpMemory()[0x0030]);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExplorerTest {
+
+    /** Key 5 jumps into data, key 3 exits, other keys wait again. */
+    private static final byte[] ROM = new byte[0x21];
+
+    static {
+        byte[] code = {
+                (byte) 0x00, (byte) 0x03,               // reset vector
+                (byte) 0x00,
+                (byte) 0xF2,                            // 0x03: LD Rx, K
+                (byte) 0xA0, (byte) 0x00, (byte) 0x20,  // 0x04: LD I, 0x0020
+                (byte) 0x30, (byte) 0x05,               // 0x07: JE Rx, 5
+                (byte) 0xA0, (byte) 0x00, (byte) 0x03,  // 0x09: LD I, 0x0003
+                (byte) 0x31, (byte) 0x03,               // 0x0C: JNE Rx, 3
+                (byte) 0xAA,                            // 0x0E: EXIT
+                (byte) 0x00,
+                (byte) 0x61, (byte) 0x01                // 0x10: LD Ry, 1, unreachable
+        };
+        System.arraycopy(code, 0, ROM, 0, code.length);
+        ROM[0x20] = (byte) 0x00;                        // 0x20: illegal
+    }
+
+    private static ExplorationResult explore() {
+        return new Explorer(new Program(ROM), 64, 32, 1000, 8, 10_000,
+                ForkJoinPool.commonPool()).explore();
+    }
+
+    @Test
+    void findsFaultTraces() {
+        ExplorationResult result = explore();
+
+        assertTrue(result.isComplete());
+        assertTrue(result.getExits() > 0);
+        assertFalse(result.getFaults().isEmpty());
+        boolean direct = false;
+        for (ExplorationResult.FaultTrace trace : result.getFaults()) {
+            assertEquals(0x20, trace.fault().address());
+            assertEquals(5, trace.keys()[trace.keys().length - 1]);
+            direct |= trace.keys().length == 1;
+        }
+        assertTrue(direct);
+    }
+
+    @Test
+    void reportsCoverage() {
+        ExplorationResult result = explore();
+
+        for (int addr : new int[] { 0x03, 0x04, 0x07, 0x09, 0x0C, 0x0E, 0x20 })
+            assertTrue(result.isCovered((short) addr), Integer.toHexString(addr));
+        assertFalse(result.isCovered((short) 0x10));
+        assertEquals(7, result.coveredCount());
+    }
+
+    @Test
+    void isDeterministic() {
+        ExplorationResult first = explore();
+        ExplorationResult second = explore();
+
+        assertEquals(first.getStates(), second.getStates());
+        assertEquals(first.getFaults().size(), second.getFaults().size());
+        assertArrayEquals(first.getCoverage(), second.getCoverage());
+    }
+
+    @Test
+    void snapshotRestoresState() {
+        Keyboard keyboard = new Keyboard();
+        LoChip chip = new LoChip(new Program(ROM), new FrameBuffer(64, 32), keyboard);
+        chip.setVerbose(false);
+        chip.setVirtualTime(1000);
+        Snapshot start = chip.snapshot();
+        Snapshot again = chip.snapshot();
+        assertEquals(start.stateHash(), again.stateHash());
+
+        keyboard.setMask(1 << 2);
+        chip.step();
+        assertEquals(2, chip.getRegisters().rX());
+        Snapshot stepped = chip.snapshot();
+        assertFalse(start.stateHash() == stepped.stateHash());
+
+        chip.restore(start);
+        assertEquals(start.stateHash(), chip.snapshot().stateHash());
+        assertEquals(start.getRegisters(), chip.getRegisters());
+    }
+}
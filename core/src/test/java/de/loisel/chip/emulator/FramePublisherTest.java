@@ -0,0 +1,196 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FramePublisherTest {
+
+    /** Starts the delay timer at 127 and loops forever. */
+    private static final byte[] TICK_COUNTER = {
+            (byte) 0x00, (byte) 0x02,               // reset vector
+            (byte) 0x60, (byte) 0x7F,               // 0x02: LD Rx, 127
+            (byte) 0xF3,                            // 0x04: LD DT, Rx
+            (byte) 0x10, (byte) 0x00, (byte) 0x05   // 0x05: JP 0x0005
+    };
+
+    /** Draws the top left pixel, waits for a key and exits. */
+    private static final byte[] DRAW_AND_WAIT = {
+            (byte) 0x00, (byte) 0x02,               // reset vector
+            (byte) 0xA0, (byte) 0x00, (byte) 0x10,  // 0x02: LD I, 0x0010
+            (byte) 0x60, (byte) 0x00,               // 0x05: LD Rx, 0
+            (byte) 0x61, (byte) 0x00,               // 0x07: LD Ry, 0
+            (byte) 0xD0, (byte) 0x01,               // 0x09: DRW Rx, Ry, 1
+            (byte) 0xF2,                            // 0x0B: LD Rx, K
+            (byte) 0xAA,                            // 0x0C: EXIT
+            0, 0, 0,
+            (byte) 0x80                             // 0x10: sprite
+    };
+
+    @Test
+    void emptyBeforeFirstFrame() {
+        FramePublisher publisher = new FramePublisher(new FrameBuffer(256, 144));
+        FramePublisher.Frame frame = publisher.latest();
+        assertEquals(0, frame.getSequence());
+        assertEquals(256, frame.getWidth());
+        assertEquals(144, frame.getHeight());
+        assertFalse(frame.isSet(0, 0));
+    }
+
+    @Test
+    void skipsToLatestFrame() {
+        FrameBuffer frameBuffer = new FrameBuffer(256, 144);
+        FramePublisher publisher = new FramePublisher(frameBuffer);
+
+        frameBuffer.setPixel(1, 1);
+        publisher.publish();
+        frameBuffer.setPixel(200, 100);
+        publisher.publish();
+
+        FramePublisher.Frame frame = publisher.latest();
+        assertEquals(2, frame.getSequence());
+        assertTrue(frame.isSet(1, 1));
+        assertTrue(frame.isSet(200, 100));
+        assertSame(frame, publisher.latest());
+    }
+
+    @Test
+    void heldFrameIsNotOverwritten() {
+        FrameBuffer frameBuffer = new FrameBuffer();
+        FramePublisher publisher = new FramePublisher(frameBuffer);
+
+        frameBuffer.setPixel(3, 4);
+        publisher.publish();
+        FramePublisher.Frame held = publisher.latest();
+
+        frameBuffer.clearBuffer();
+        for (int i = 0; i < 5; i++)
+            publisher.publish();
+
+        assertEquals(1, held.getSequence());
+        assertTrue(held.isSet(3, 4));
+        FramePublisher.Frame next = publisher.latest();
+        assertEquals(6, next.getSequence());
+        assertFalse(next.isSet(3, 4));
+    }
+
+    @Test
+    void concurrentReaderSeesWholeFrames() throws InterruptedException {
+        FrameBuffer frameBuffer = new FrameBuffer();
+        FramePublisher publisher = new FramePublisher(frameBuffer);
+        int frames = 20000;
+
+        // every frame has either all or none of the pixels of row 0 set
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < frames; i++) {
+                for (int x = 0; x < 64; x++)
+                    frameBuffer.setPixel(x, 0);
+                publisher.publish();
+            }
+        });
+        writer.start();
+
+        long last = 0;
+        while (last < frames) {
+            FramePublisher.Frame frame = publisher.latest();
+            assertTrue(frame.getSequence() >= last);
+            last = frame.getSequence();
+            boolean first = frame.isSet(0, 0);
+            for (int x = 1; x < 64; x++)
+                assertEquals(first, frame.isSet(x, 0));
+            if (last > 0)
+                assertEquals(last % 2 == 1, first);
+        }
+        writer.join();
+    }
+
+    @Test
+    void publishesWhenRunEnds() {
+        Keyboard keyboard = new Keyboard();
+        keyboard.set((byte) 0x1);
+        FrameBuffer frameBuffer = new FrameBuffer();
+        FramePublisher publisher = new FramePublisher(frameBuffer);
+        LoChip chip = new LoChip(new Program(DRAW_AND_WAIT), frameBuffer, keyboard);
+        chip.setVerbose(false);
+        chip.setFramePublisher(publisher);
+
+        chip.run(100);
+        assertTrue(chip.hasExited());
+
+        assertTrue(publisher.latest().getSequence() > 0);
+        assertTrue(publisher.latest().isSet(0, 0));
+    }
+
+    @Test
+    void publishesBeforeWaitingForKey() throws InterruptedException {
+        Keyboard keyboard = new Keyboard();
+        FrameBuffer frameBuffer = new FrameBuffer();
+        FramePublisher publisher = new FramePublisher(frameBuffer);
+        LoChip chip = new LoChip(new Program(DRAW_AND_WAIT), frameBuffer, keyboard);
+        chip.setVerbose(false);
+        chip.setFramePublisher(publisher);
+        Thread chipThread = new Thread(() -> chip.run(100));
+        chipThread.start();
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (publisher.latest().getSequence() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertTrue(publisher.latest().isSet(0, 0));
+
+        keyboard.set((byte) 0x1);
+        chipThread.join(1000);
+        assertTrue(chip.hasExited());
+    }
+
+    @Test
+    void speedScalesTicks() {
+        // 1 ms per reading, a tick at normal speed takes 17 readings
+        assertEquals(29, ticks(1, 500));
+        assertEquals(100, ticks(4, 500));
+        assertEquals(14, ticks(0.5, 500));
+    }
+
+    @Test
+    void speedMustBePositive() {
+        LoChip chip = new LoChip(new Program(TICK_COUNTER), new FrameBuffer(), new Keyboard());
+        chip.setSpeed(50);
+        assertEquals(50, chip.getSpeed(), 0.01);
+        assertThrows(IllegalArgumentException.class, () -> chip.setSpeed(0));
+        assertThrows(IllegalArgumentException.class, () -> chip.setSpeed(Double.NaN));
+    }
+
+    /**
+     * Runs the tick counter on a clock that advances 1 ms whenever it is read.
+     * @return the number of timer ticks
+     */
+    private static int ticks(double speed, long instructions) {
+        LoChip chip = new LoChip(new Program(TICK_COUNTER), new FrameBuffer(), new Keyboard());
+        chip.setVerbose(false);
+        chip.setIdleDetection(false);
+        long[] now = new long[1];
+        chip.clock = () -> now[0] += 1_000_000;
+        chip.setSpeed(speed);
+        chip.run(instructions + 2);
+        return 127 - chip.getRegisters().delayTimer();
+    }
+}
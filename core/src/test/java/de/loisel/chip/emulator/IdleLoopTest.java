@@ -0,0 +1,144 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdleLoopTest {
+
+    /** Waits for 30 ticks of the delay timer, then stores Ry at 0x0020. */
+    private static final byte[] DELAY_LOOP = {
+            (byte) 0x00, (byte) 0x03,               // reset vector
+            (byte) 0x00,
+            (byte) 0x60, (byte) 0x1E,               // 0x03: LD Rx, 30
+            (byte) 0xF3,                            // 0x05: LD DT, Rx
+            (byte) 0xA0, (byte) 0x00, (byte) 0x09,  // 0x06: LD I, 0x0009
+            (byte) 0xF1,                            // 0x09: LD Rx, DT
+            (byte) 0x31, (byte) 0x00,               // 0x0A: JNE Rx, 0
+            (byte) 0x61, (byte) 0x2A,               // 0x0C: LD Ry, 42
+            (byte) 0xA0, (byte) 0x00, (byte) 0x20,  // 0x0E: LD I, 0x0020
+            (byte) 0x65,                            // 0x11: LD I, Ry
+            (byte) 0xAA                             // 0x12: EXIT
+    };
+
+    @Test
+    void virtualTimeSkipsToNextTick() {
+        LoChip plain = newChip(false);
+        LoChip idle = newChip(true);
+
+        long executed = plain.run(Long.MAX_VALUE);
+        assertEquals(executed, idle.run(Long.MAX_VALUE));
+        assertEquals(plain.getRegisters(), idle.getRegisters());
+        assertEquals(42, idle.dumpMemory()[0x0020]);
+
+        assertEquals(0, plain.getSkippedInstructions());
+        assertTrue(idle.getSkippedInstructions() > executed * 9 / 10);
+    }
+
+    @Test
+    void budgetIsExact() {
+        for (long budget = 1000; budget < 40000; budget += 777) {
+            LoChip plain = newChip(false);
+            LoChip idle = newChip(true);
+            plain.run(budget);
+            idle.run(budget);
+            assertEquals(plain.getRegisters(), idle.getRegisters());
+        }
+    }
+
+    @Test
+    void escapingPathIsNotSkipped() {
+        byte[] rom = new byte[0x30];
+        byte[] loop = {
+                (byte) 0x00, (byte) 0x03,               // reset vector
+                (byte) 0x00,
+                (byte) 0xA0, (byte) 0x00, (byte) 0x20,  // 0x03: LD I, 0x0020
+                (byte) 0x31, (byte) 0x01,               // 0x06: JNE Rx, 1
+                (byte) 0xA0, (byte) 0x00, (byte) 0x03,  // 0x08: LD I, 0x0003
+                (byte) 0x31, (byte) 0x02,               // 0x0B: JNE Rx, 2
+        };
+        byte[] escape = {
+                (byte) 0xA0, (byte) 0x01, (byte) 0x00,  // 0x20: LD I, 0x0100
+                (byte) 0x63,                            //       LD Ry, I
+                (byte) 0x71, (byte) 0x01,               //       ADD Ry, 1
+                (byte) 0x65,                            //       LD I, Ry
+                (byte) 0x61, (byte) 0x00,               //       LD Ry, 0
+                (byte) 0x10, (byte) 0x00, (byte) 0x08   //       JP 0x0008
+        };
+        System.arraycopy(loop, 0, rom, 0, loop.length);
+        System.arraycopy(escape, 0, rom, 0x20, escape.length);
+
+        LoChip plain = new LoChip(new Program(rom), new FrameBuffer(), new Keyboard());
+        LoChip idle = new LoChip(new Program(rom), new FrameBuffer(), new Keyboard());
+        plain.setVirtualTime(1000);
+        idle.setVirtualTime(1000);
+        plain.setIdleDetection(false);
+        plain.run(5000);
+        idle.run(5000);
+
+        // every iteration stores the incremented counter
+        assertEquals(plain.dumpMemory()[0x0100], idle.dumpMemory()[0x0100]);
+        assertEquals(plain.getRegisters(), idle.getRegisters());
+        assertEquals(0, idle.getSkippedInstructions());
+    }
+
+    @Test
+    void realTimeParksUntilTick() {
+        byte[] rom = DELAY_LOOP.clone();
+        rom[4] = 6;     // wait 6 ticks, about 100 ms
+
+        LoChip chip = new LoChip(new Program(rom), new FrameBuffer(), new Keyboard());
+        long executed = chip.run(Long.MAX_VALUE);
+
+        assertEquals(42, chip.dumpMemory()[0x0020]);
+        // a spinning loop would execute millions of instructions in 100 ms
+        assertTrue(executed < 10000);
+    }
+
+    @Test
+    void keyPollWakesOnKey() throws InterruptedException {
+        byte[] rom = {
+                (byte) 0x00, (byte) 0x02,               // reset vector
+                (byte) 0x60, (byte) 0x05,               // 0x02: LD Rx, 5
+                (byte) 0xA0, (byte) 0x00, (byte) 0x07,  // 0x04: LD I, 0x0007
+                (byte) 0xE2,                            // 0x07: JKNP Rx
+                (byte) 0xAA                             // 0x08: EXIT
+        };
+        Keyboard keyboard = new Keyboard();
+        LoChip chip = new LoChip(new Program(rom), new FrameBuffer(), keyboard);
+        long[] executed = new long[1];
+        Thread chipThread = new Thread(() -> executed[0] = chip.run(Long.MAX_VALUE));
+        chipThread.start();
+
+        Thread.sleep(200);
+        keyboard.set((byte) 5);
+        chipThread.join(1000);
+
+        assertEquals(0x0009, chip.getProgramCounter());
+        assertTrue(executed[0] < 10000);
+    }
+
+    private static LoChip newChip(boolean idleDetection) {
+        LoChip chip = new LoChip(new Program(DELAY_LOOP), new FrameBuffer(), new Keyboard());
+        chip.setVirtualTime(1000);
+        chip.setIdleDetection(idleDetection);
+        return chip;
+    }
+}
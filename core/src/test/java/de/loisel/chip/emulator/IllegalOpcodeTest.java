@@ -0,0 +1,102 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class IllegalOpcodeTest {
+
+    private static final byte[] ROM = {
+            (byte) 0x00, (byte) 0x03,               // reset vector
+            (byte) 0x00,
+            (byte) 0x60, (byte) 0x07,               // 0x03: LD Rx, 7
+            (byte) 0x00,                            // 0x05: illegal
+            (byte) 0x61, (byte) 0x09,               // 0x06: LD Ry, 9
+            (byte) 0xAA                             // 0x08: EXIT
+    };
+
+    private static LoChip newChip(IllegalOpcodePolicy policy) {
+        LoChip chip = new LoChip(new Program(ROM), new FrameBuffer(), new Keyboard());
+        chip.setVerbose(false);
+        chip.setIllegalOpcodePolicy(policy);
+        return chip;
+    }
+
+    @Test
+    void haltReportsFault() {
+        LoChip chip = newChip(IllegalOpcodePolicy.HALT);
+        RunResult result = chip.runFor(100);
+
+        assertEquals(RunResult.Reason.FAULT, result.reason());
+        assertEquals(new Fault((short) 0x05, 0x00, 1), result.fault());
+        assertEquals(1, result.instructions());
+        assertEquals(1, result.illegalOpcodes());
+        assertEquals(0x05, chip.getProgramCounter());
+        assertEquals(0, chip.getRegisters().rY());
+    }
+
+    @Test
+    void resumeCountsFaultOnce() {
+        LoChip chip = newChip(IllegalOpcodePolicy.HALT);
+        chip.setVirtualTime(3);
+        long first = chip.runFor(100).instructions();
+
+        chip.setIllegalOpcodePolicy(IllegalOpcodePolicy.NOP);
+        RunResult result = chip.runFor(100);
+        assertEquals(RunResult.Reason.EXIT, result.reason());
+        assertEquals(4, first + result.instructions());
+        // the timers ticked after LD Ry, the third instruction, EXIT is one more
+        assertEquals(2, chip.snapshot().untilTick);
+    }
+
+    @Test
+    void nopContinues() {
+        for (IllegalOpcodePolicy policy : new IllegalOpcodePolicy[] { IllegalOpcodePolicy.NOP, IllegalOpcodePolicy.LOG }) {
+            LoChip chip = newChip(policy);
+            RunResult result = chip.runFor(100);
+
+            assertEquals(RunResult.Reason.EXIT, result.reason());
+            assertEquals(4, result.instructions());
+            assertEquals(1, result.illegalOpcodes());
+            assertNull(result.fault());
+            assertEquals(9, chip.getRegisters().rY());
+        }
+    }
+
+    @Test
+    void trapStopsDebugger() {
+        LoChip chip = newChip(IllegalOpcodePolicy.TRAP);
+        int[] stops = new int[1];
+        chip.getDebugger().setOnStop(() -> stops[0]++);
+
+        assertEquals(RunResult.Reason.FAULT, chip.runFor(100).reason());
+        assertEquals(1, stops[0]);
+        assertEquals(Debugger.StopReason.ILLEGAL_OPCODE, chip.getDebugger().getStopReason());
+        assertEquals(0x05, chip.getDebugger().getStopAddress());
+    }
+
+    @Test
+    void budgetAndCount() {
+        LoChip chip = newChip(IllegalOpcodePolicy.NOP);
+        assertEquals(RunResult.Reason.BUDGET, chip.runFor(2).reason());
+        assertEquals(RunResult.Reason.EXIT, chip.runFor(100).reason());
+        assertEquals(1, chip.getIllegalOpcodeCount());
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeyboardTest {
+
+    /** Waits for a key and stores it at 0x0010. */
+    private static final byte[] KEY_WAIT = {
+            (byte) 0x00, (byte) 0x02,               // reset vector
+            (byte) 0xF2,                            // LD Rx, K
+            (byte) 0xA0, (byte) 0x00, (byte) 0x10,  // LD I, 0x0010
+            (byte) 0x64, (byte) 0xAA                // LD I, Rx; EXIT
+    };
+
+    private final Keyboard keyboard = new Keyboard();
+
+    @Test
+    void setAndUnset() {
+        keyboard.set((byte) 0xF);
+        keyboard.set((byte) 0x3);
+        assertTrue(keyboard.isDown((byte) 0xF));
+        assertTrue(keyboard.isDown((byte) 0x3));
+        assertEquals(0x8008, keyboard.getMask());
+        assertEquals(0x3, keyboard.getNextKey());
+
+        keyboard.unset((byte) 0x3);
+        assertFalse(keyboard.isDown((byte) 0x3));
+        assertEquals(0xF, keyboard.getNextKey());
+
+        keyboard.toggleKeyState((byte) 0xF);
+        assertEquals(Keyboard.NO_KEY, keyboard.getNextKey());
+    }
+
+    @Test
+    void resetClearsAllSixteenKeys() {
+        for (byte k = 0; k < 16; k++)
+            keyboard.set(k);
+        keyboard.resetKeys();
+        assertEquals(0, keyboard.getMask());
+        keyboard.set((byte) 0xF);
+        assertTrue(keyboard.isDown((byte) 0xF));
+    }
+
+    @Test
+    void waitReturnsKeyAlreadyDown() {
+        keyboard.set((byte) 0x7);
+        assertEquals(0x7, keyboard.waitForKey());
+    }
+
+    @Test
+    void waitForKeyParksInterpreter() throws InterruptedException {
+        LoChip chip = new LoChip(new Program(KEY_WAIT), new FrameBuffer(), keyboard);
+        Thread chipThread = new Thread(() -> chip.run(100));
+        chipThread.start();
+
+        Thread.sleep(50);
+        assertTrue(chipThread.isAlive());
+
+        keyboard.set((byte) 0xB);
+        chipThread.join(1000);
+        assertFalse(chipThread.isAlive());
+        assertEquals(0xB, chip.dumpMemory()[0x0010]);
+    }
+
+    @Test
+    void virtualTimeKeyWaitBlocksByDefault() throws InterruptedException {
+        LoChip chip = new LoChip(new Program(KEY_WAIT), new FrameBuffer(), keyboard);
+        chip.setVirtualTime(1000);
+        Thread chipThread = new Thread(() -> chip.run(5000));
+        chipThread.start();
+
+        Thread.sleep(50);
+        assertTrue(chipThread.isAlive());
+
+        keyboard.set((byte) 0x4);
+        chipThread.join(1000);
+        assertEquals(0x4, chip.dumpMemory()[0x0010]);
+    }
+
+    @Test
+    void virtualTimeKeyWaitPolls() {
+        LoChip chip = new LoChip(new Program(KEY_WAIT), new FrameBuffer(), keyboard);
+        chip.setVirtualTime(1000);
+        chip.setKeyWaitPolling(true);
+
+        assertEquals(5000, chip.run(5000));
+        assertEquals(0x0002, chip.getProgramCounter());
+
+        keyboard.set((byte) 0x4);
+        chip.run(5000);
+        assertTrue(chip.hasExited());
+        assertEquals(0x4, chip.dumpMemory()[0x0010]);
+    }
+
+    @Test
+    void changeWakesAllWaiters() throws InterruptedException {
+        long timeout = 10_000_000_000L;
+        long[] waited = new long[2];
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < 2; i++) {
+            int n = i;
+            threads[i] = new Thread(() -> {
+                long start = System.nanoTime();
+                keyboard.awaitChange(0, timeout);
+                waited[n] = System.nanoTime() - start;
+            });
+            threads[i].start();
+        }
+
+        Thread.sleep(50);
+        keyboard.set((byte) 0x2);
+        for (Thread thread : threads)
+            thread.join(5000);
+
+        assertTrue(waited[0] > 0 && waited[0] < timeout);
+        assertTrue(waited[1] > 0 && waited[1] < timeout);
+    }
+
+    @Test
+    void pressWakesAllKeyWaiters() throws InterruptedException {
+        byte[] keys = { Keyboard.NO_KEY, Keyboard.NO_KEY };
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < 2; i++) {
+            int n = i;
+            threads[i] = new Thread(() -> keys[n] = keyboard.waitForKey());
+            threads[i].start();
+        }
+
+        Thread.sleep(50);
+        keyboard.set((byte) 0x3);
+        for (Thread thread : threads)
+            thread.join(5000);
+
+        assertEquals(0x3, keys[0]);
+        assertEquals(0x3, keys[1]);
+    }
+
+    @Test
+    void waitSeesShortPress() throws InterruptedException {
+        byte[] key = { Keyboard.NO_KEY };
+        Thread thread = new Thread(() -> key[0] = keyboard.waitForKey());
+        thread.start();
+
+        Thread.sleep(50);
+        keyboard.setMask(1 << 0x9);
+        keyboard.setMask(0);
+        thread.join(5000);
+
+        assertFalse(thread.isAlive());
+        assertEquals(0x9, key[0]);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MemoryTest {
+
+    /** Remembers the last write, reads return offset + 1. */
+    private static class Port implements MemoryDevice {
+        int lastOffset = -1;
+        byte lastValue;
+
+        @Override
+        public byte read(int offset) {
+            return (byte) (offset + 1);
+        }
+
+        @Override
+        public void write(int offset, byte value) {
+            lastOffset = offset;
+            lastValue = value;
+        }
+    }
+
+    @Test
+    void devicePagesDispatch() {
+        Memory memory = new Memory();
+        Port port = new Port();
+        memory.write((short) 0x8005, (byte) 0x11);
+        memory.map((short) 0x8000, 0x200, port);
+        assertTrue(memory.hasDevices());
+
+        assertEquals(0x06, memory.fetch((short) 0x8005));
+        assertEquals(0x00, memory.fetch((short) 0x7FFF));
+        memory.write((short) 0x8105, (byte) 0x42);
+        assertEquals(0x105, port.lastOffset);
+        assertEquals(0x42, port.lastValue);
+
+        // RAM below the device is untouched and visible again after unmap
+        assertEquals(0x11, memory.fetchCode((short) 0x8005));
+        memory.unmap((short) 0x8000, 0x200);
+        assertFalse(memory.hasDevices());
+        assertEquals(0x11, memory.fetch((short) 0x8005));
+    }
+
+    @Test
+    void fetchArrayCrossesIntoDevice() {
+        Memory memory = new Memory();
+        memory.write((short) 0x10FE, (byte) 7);
+        memory.write((short) 0x10FF, (byte) 8);
+        memory.map((short) 0x1100, 0x100, new Port());
+
+        assertArrayEquals(new byte[] { 7, 8, 1, 2 }, memory.fetchArray((short) 0x10FE, 4));
+        assertArrayEquals(new byte[] { 0, 0 }, memory.fetchArray((short) 0x10FC, 2));
+    }
+
+    @Test
+    void rejectsBadRanges() {
+        Memory memory = new Memory();
+        memory.map((short) 0x0200, 0x100, new Port());
+        assertThrows(IllegalArgumentException.class, () -> memory.map((short) 0x0210, 0x100, new Port()));
+        assertThrows(IllegalArgumentException.class, () -> memory.map((short) 0x0100, 0x180, new Port()));
+        assertThrows(IllegalArgumentException.class, () -> memory.map((short) 0x0100, 0x200, new Port()));
+        assertThrows(IllegalArgumentException.class, () -> memory.map((short) 0xFF00, 0x200, new Port()));
+    }
+
+    @Test
+    void chipLoadsFromDevice() {
+        byte[] rom = {
+                (byte) 0x00, (byte) 0x03,               // reset vector
+                (byte) 0x00,
+                (byte) 0xA0, (byte) 0x40, (byte) 0x10,  // 0x03: LD I, 0x4010
+                (byte) 0xFE,                            // 0x06: LD Rx, Ry, I
+                (byte) 0xAA                             // 0x07: EXIT
+        };
+        LoChip chip = new LoChip(new Program(rom), new FrameBuffer(), new Keyboard());
+        chip.setVerbose(false);
+        chip.mapDevice((short) 0x4000, 0x100, new Port());
+        chip.run(100);
+
+        assertEquals(0x11, chip.getRegisters().rX());
+        assertEquals(0x12, chip.getRegisters().rY());
+    }
+
+    @Test
+    void viewsShareTheRam() {
+        Memory memory = new Memory();
+        ByteBuffer view = memory.asReadOnlyBuffer();
+        assertTrue(view.isReadOnly());
+        assertEquals(Memory.MEMORY_SIZE, view.capacity());
+
+        memory.write((short) 0x1234, (byte) 0x56);
+        assertEquals(0x56, view.get(0x1234));
+        assertThrows(ReadOnlyBufferException.class, () -> view.put(0, (byte) 1));
+
+        memory.reset();
+        assertEquals(0, view.get(0x1234));
+    }
+
+    @Test
+    void storeIsSeenEverywhere() {
+        Memory memory = new Memory();
+        Memory expected = new Memory();
+        ByteBuffer view = memory.asReadOnlyBuffer();
+
+        memory.store(0x0400, new byte[] { 9 }, 0, 1);
+        memory.write((short) 0x0401, (byte) 8);
+        expected.write((short) 0x0400, (byte) 9);
+        expected.write((short) 0x0401, (byte) 8);
+
+        assertEquals(9, memory.fetch((short) 0x0400));
+        assertEquals(9, view.get(0x0400));
+        assertEquals(expected.contentHash(), memory.contentHash());
+    }
+
+    @Test
+    void bulkLoadAndStore() {
+        Memory memory = new Memory();
+        Memory expected = new Memory();
+        byte[] block = { 1, 2, 3, 4, 5 };
+
+        memory.store(0xFFFC, block, 1, 4);
+        for (int i = 0; i < 4; i++)
+            expected.write((short) (0xFFFC + i), block[1 + i]);
+        assertEquals(expected.contentHash(), memory.contentHash());
+
+        byte[] dest = new byte[6];
+        memory.load(0xFFFC, dest, 2, 4);
+        assertArrayEquals(new byte[] { 0, 0, 2, 3, 4, 5 }, dest);
+
+        assertThrows(IndexOutOfBoundsException.class, () -> memory.store(0xFFFD, block, 0, 4));
+        assertThrows(IndexOutOfBoundsException.class, () -> memory.load(0, dest, 4, 4));
+    }
+}
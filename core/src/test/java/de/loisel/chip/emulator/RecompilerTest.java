@@ -0,0 +1,238 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import org.junit.jupiter.api.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecompilerTest {
+
+    private static final String[] CORPUS = {
+            "16b-addFunction.bin", "JmpSrt.bin", "simple-program.bin", "MilliInst.bin"
+    };
+
+    /** Calls, arithmetic, RND, sprites, timers and $B0, loops until DT runs out. */
+    private static final byte[] MIXED = new byte[0x0204];
+
+    static {
+        byte[] code = {
+                (byte) 0x00, (byte) 0x03,               // reset vector
+                (byte) 0x00,
+                (byte) 0x60, (byte) 0x07,               // 0x03: LD Rx, 7
+                (byte) 0xF3,                            // 0x05: LD DT, Rx
+                (byte) 0x61, (byte) 0x03,               // 0x06: LD Ry, 3
+                (byte) 0x20, (byte) 0x00, (byte) 0x30,  // 0x08: CALL 0x0030
+                (byte) 0xC0, (byte) 0x0F,               // 0x0B: RND Rx, 0x0F
+                (byte) 0x86,                            // 0x0D: SHR Rx
+                (byte) 0x8E,                            // 0x0E: SHL Rx
+                (byte) 0x87,                            // 0x0F: SUBN Rx, Ry
+                (byte) 0x85,                            // 0x10: SUB Rx, Ry
+                (byte) 0xA0, (byte) 0x01, (byte) 0x00,  // 0x11: LD I, 0x0100
+                (byte) 0xFC,                            // 0x14: LD B, Rx
+                (byte) 0xA1,                            // 0x15: LD I, RxRy
+                (byte) 0xA0, (byte) 0x02, (byte) 0x00,  // 0x16: LD I, 0x0200
+                (byte) 0xD0, (byte) 0x04,               // 0x19: DRW Rx, Ry, 4
+                (byte) 0xF1,                            // 0x1B: LD Rx, DT
+                (byte) 0xA0, (byte) 0x00, (byte) 0x0B,  // 0x1C: LD I, 0x000B
+                (byte) 0x31, (byte) 0x00,               // 0x1F: JNE Rx, 0
+                (byte) 0x60, (byte) 0x02,               // 0x21: LD Rx, 2
+                (byte) 0xB0, (byte) 0x25,               // 0x23: JP Rx, 0x25
+                (byte) 0xAA,                            // 0x25: EXIT, skipped
+                (byte) 0xAA,                            // 0x26: EXIT, skipped
+                (byte) 0xF4,                            // 0x27: LD ST, Rx
+                (byte) 0xAA                             // 0x28: EXIT
+        };
+        System.arraycopy(code, 0, MIXED, 0, code.length);
+        byte[] sub = {
+                (byte) 0x71, (byte) 0x05,               // 0x30: ADD Ry, 5
+                (byte) 0x84,                            // 0x32: ADD Rx, Ry
+                (byte) 0x81,                            // 0x33: OR Rx, Ry
+                (byte) 0x82,                            // 0x34: AND Rx, Ry
+                (byte) 0x83,                            // 0x35: XOR Rx, Ry
+                (byte) 0xA0, (byte) 0x03, (byte) 0x00,  // 0x36: LD I, 0x0300
+                (byte) 0xFD,                            // 0x39: LD I, Rx, Ry
+                (byte) 0xFE,                            // 0x3A: LD Rx, Ry, I
+                (byte) 0xEE                             // 0x3B: RET
+        };
+        System.arraycopy(sub, 0, MIXED, 0x30, sub.length);
+        byte[] sprite = { (byte) 0xF0, (byte) 0x90, (byte) 0x90, (byte) 0xF0 };
+        System.arraycopy(sprite, 0, MIXED, 0x200, sprite.length);
+    }
+
+    /** Increments a 16-bit counter at 0x0100 until it wraps. */
+    private static final byte[] COUNTER_LOOP = {
+            (byte) 0x00, (byte) 0x03,               // reset vector
+            (byte) 0x00,
+            (byte) 0xA0, (byte) 0x01, (byte) 0x00,  // 0x03: LD I, 0x0100
+            (byte) 0x62,                            //       LD Rx, I
+            (byte) 0x61, (byte) 0x01,               //       LD Ry, 1
+            (byte) 0x84,                            //       ADD Rx, Ry
+            (byte) 0x64,                            //       LD I, Rx
+            (byte) 0xA0, (byte) 0x00, (byte) 0x03,  //       LD I, 0x0003
+            (byte) 0x31, (byte) 0x00,               //       JNE Rx, 0
+            (byte) 0xA0, (byte) 0x01, (byte) 0x01,  //       LD I, 0x0101
+            (byte) 0x62,                            //       LD Rx, I
+            (byte) 0x61, (byte) 0x01,               //       LD Ry, 1
+            (byte) 0x84,                            //       ADD Rx, Ry
+            (byte) 0x64,                            //       LD I, Rx
+            (byte) 0xA0, (byte) 0x00, (byte) 0x03,  //       LD I, 0x0003
+            (byte) 0x31, (byte) 0x00,               //       JNE Rx, 0
+            (byte) 0xAA                             //       EXIT
+    };
+
+    /** Waits for a key, then exits. */
+    private static final byte[] KEY_WAIT = {
+            (byte) 0x00, (byte) 0x03,               // reset vector
+            (byte) 0x00,
+            (byte) 0x61, (byte) 0x09,               // 0x03: LD Ry, 9
+            (byte) 0xF2,                            // 0x05: LD Rx, K
+            (byte) 0x71, (byte) 0x01,               // 0x06: ADD Ry, 1
+            (byte) 0xAA                             // 0x08: EXIT
+    };
+
+    /** Jumps, calls and loads of addresses with a low byte of 0x80 or more. */
+    private static final byte[] HIGH_ADDRESSES = new byte[0x0200];
+
+    static {
+        byte[][] code = {
+                { (byte) 0x00, (byte) 0x03 },                       // reset vector
+                { (byte) 0x10, (byte) 0x01, (byte) 0x80 },          // 0x03: JP 0x0180
+                { (byte) 0xA0, (byte) 0x01, (byte) 0xC0,            // 0x0158: LD I, 0x01C0
+                        (byte) 0x64, (byte) 0xAA },                 //         LD I, Rx; EXIT
+                { (byte) 0x20, (byte) 0x01, (byte) 0x90,            // 0x0180: CALL 0x0190
+                        (byte) 0x60, (byte) 0xC8,                   //         LD Rx, 0xC8
+                        (byte) 0xB0, (byte) 0x90 },                 //         JP Rx, 0x90
+                { (byte) 0x61, (byte) 0xAB, (byte) 0xEE }           // 0x0190: LD Ry, 0xAB; RET
+        };
+        int[] at = { 0x00, 0x03, 0x0158, 0x0180, 0x0190 };
+        for (int i = 0; i < code.length; i++)
+            System.arraycopy(code[i], 0, HIGH_ADDRESSES, at[i], code[i].length);
+    }
+
+    String binPath;
+
+    RecompilerTest() {
+        File file = new File("src/test/resources");
+        binPath = file.getAbsolutePath() + File.separator + "bin" + File.separator;
+    }
+
+    @Test
+    void corpusMatchesInterpreter() throws Exception {
+        for (String name : CORPUS) {
+            byte[] rom = new Program(binPath + name).getProgram();
+            assertSameRun(rom, 1_000_000, 0);
+        }
+    }
+
+    @Test
+    void mixedMatchesInterpreter() throws Exception {
+        assertSameRun(MIXED, 1_000_000, 0);
+        for (long budget = 1; budget < 8000; budget += 997)
+            assertSameRun(MIXED, budget, 0);
+    }
+
+    @Test
+    void counterMatchesInterpreter() throws Exception {
+        RunResult result = assertSameRun(COUNTER_LOOP, Long.MAX_VALUE, 0);
+        assertEquals(RunResult.Reason.EXIT, result.reason());
+        assertEquals(65536 * 7 + 256 * 7 + 1, result.instructions());
+    }
+
+    @Test
+    void highAddressesMatchInterpreter() throws Exception {
+        RunResult result = assertSameRun(HIGH_ADDRESSES, 1000, 0);
+        assertEquals(RunResult.Reason.EXIT, result.reason());
+        assertEquals(9, result.instructions());
+
+        LoChip chip = newChip(HIGH_ADDRESSES, 0);
+        chip.runFor(1000);
+        assertEquals((byte) 0xC8, chip.dumpMemory()[0x01C0]);
+        assertEquals((byte) 0xAB, chip.getRegisters().rY());
+    }
+
+    @Test
+    void keyWaitFallsBackToInterpreter() throws Exception {
+        assertEquals(RunResult.Reason.BUDGET, assertSameRun(KEY_WAIT, 5000, 0).reason());
+        assertEquals(RunResult.Reason.EXIT, assertSameRun(KEY_WAIT, 5000, 1 << 4).reason());
+    }
+
+    @Test
+    void recoversCode() {
+        Recompiler recompiler = new Recompiler(MIXED);
+        // entry, return address and the loop target 0x0B coincide, $B0 target is unknown
+        assertEquals(Arrays.asList(0x03, 0x0B, 0x21, 0x30),
+                Arrays.asList(recompiler.getBlocks().toArray()));
+    }
+
+    private RunResult assertSameRun(byte[] rom, long budget, int keys) throws Exception {
+        LoChip interpreted = newChip(rom, keys);
+        LoChip compiled = newChip(rom, keys);
+
+        RunResult expected = interpreted.runFor(budget);
+        RunResult actual = compile(rom).run(compiled, budget);
+
+        assertEquals(expected.reason(), actual.reason());
+        assertEquals(expected.instructions(), actual.instructions());
+        assertEquals(interpreted.getRegisters(), compiled.getRegisters());
+        assertArrayEquals(interpreted.dumpMemory(), compiled.dumpMemory());
+        assertEquals(interpreted.stateHash(), compiled.stateHash());
+        assertEquals(interpreted.isSound(), compiled.isSound());
+        return actual;
+    }
+
+    private static LoChip newChip(byte[] rom, int keys) {
+        Keyboard keyboard = new Keyboard();
+        keyboard.setMask(keys);
+        LoChip chip = new LoChip(new Program(rom), new FrameBuffer(), keyboard);
+        chip.setVerbose(false);
+        chip.setVirtualTime(1000);
+        chip.setKeyWaitPolling(true);
+        chip.setIllegalOpcodePolicy(IllegalOpcodePolicy.NOP);
+        chip.rand = new Random(42);
+        return chip;
+    }
+
+    static CompiledRom compile(byte[] rom) throws IOException, ReflectiveOperationException {
+        Path dir = Files.createTempDirectory("recompiler");
+        String className = "de.loisel.chip.aot.Rom";
+        Path source = dir.resolve("Rom.java");
+        Files.writeString(source, new Recompiler(rom).generate(className));
+
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        int status = javac.run(null, null, null, "-d", dir.toString(),
+                "-cp", System.getProperty("java.class.path"), source.toString());
+        assertEquals(0, status);
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { dir.toUri().toURL() },
+                RecompilerTest.class.getClassLoader())) {
+            return (CompiledRom) loader.loadClass(className).getConstructor().newInstance();
+        }
+    }
+}
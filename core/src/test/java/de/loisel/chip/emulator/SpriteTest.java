@@ -0,0 +1,135 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpriteTest {
+
+    private static final int SPRITE = 0x0100;
+    private static final int LEFT_HALF = 0x0200;
+    private static final int RIGHT_HALF = 0x0210;
+
+    /** Draws the 16x16 sprite at (x, y) with $D1 and loops. */
+    static final byte[] D1_LOOP = {
+            (byte) 0xA0, (byte) 0x01, (byte) 0x00,  // 0x07: LD I, SPRITE
+            (byte) 0xD1,                            // 0x0A: DRW Rx, Ry
+            (byte) 0x10, (byte) 0x00, (byte) 0x07   // 0x0B: JP 0x0007
+    };
+
+    /** Draws the same image with two 8x16 $D0 sprites and loops. */
+    static final byte[] D0_LOOP = {
+            (byte) 0xA0, (byte) 0x02, (byte) 0x00,  // 0x07: LD I, LEFT_HALF
+            (byte) 0xD0, (byte) 0x10,               // 0x0A: DRW Rx, Ry, 16
+            (byte) 0x70, (byte) 0x08,               // 0x0C: ADD Rx, 8
+            (byte) 0xA0, (byte) 0x02, (byte) 0x10,  // 0x0E: LD I, RIGHT_HALF
+            (byte) 0xD0, (byte) 0x10,               // 0x11: DRW Rx, Ry, 16
+            (byte) 0x70, (byte) 0xF8,               // 0x13: ADD Rx, -8
+            (byte) 0x10, (byte) 0x00, (byte) 0x07   // 0x15: JP 0x0007
+    };
+
+    @Test
+    void d1MatchesTwoD0Sprites() {
+        FrameBuffer d1 = new FrameBuffer(256, 144);
+        FrameBuffer d0 = new FrameBuffer(256, 144);
+        newChip(D1_LOOP, d1, 10, 20).run(2);
+        newChip(D0_LOOP, d0, 10, 20).run(6);
+
+        assertArrayEquals(d0.copyBBuffer(), d1.copyBBuffer());
+        assertTrue(d1.copyBuffer()[10][20]);        // 0x80 of the first row
+        assertFalse(d1.copyBuffer()[11][20]);
+        assertTrue(d1.copyBuffer()[25][35]);        // 0x01 of the last row
+    }
+
+    @Test
+    void collisionWhenDrawnTwice() {
+        FrameBuffer frameBuffer = new FrameBuffer(256, 144);
+        LoChip chip = newChip(D1_LOOP, frameBuffer, 60, 7);
+        chip.run(2);
+        assertFalse(chip.getRegisters().f());
+
+        chip.run(3);
+        assertTrue(chip.getRegisters().f());
+        for (boolean[] column : frameBuffer.copyBuffer())
+            for (boolean pixel : column)
+                assertFalse(pixel);
+    }
+
+    @Test
+    void clippedAtDisplayEdge() {
+        FrameBuffer frameBuffer = new FrameBuffer(64, 32);
+        newChip(D1_LOOP, frameBuffer, 60, 28).run(2);
+
+        boolean[][] image = frameBuffer.copyBuffer();
+        assertTrue(image[60][28]);
+        int set = 0;
+        for (boolean[] column : image)
+            for (boolean pixel : column)
+                if (pixel)
+                    set++;
+        assertEquals(7, set);   // border and diagonal pixels of the visible 4x4 corner
+    }
+
+    @Test
+    void loopsStayEqual() {
+        for (int images = 1; images <= 101; images += 25) {
+            FrameBuffer d1 = new FrameBuffer(256, 144);
+            FrameBuffer d0 = new FrameBuffer(256, 144);
+            LoChip d1Chip = newChip(D1_LOOP, d1, 100, 50);
+            LoChip d0Chip = newChip(D0_LOOP, d0, 100, 50);
+            d1Chip.run(3L * images - 1);
+            d0Chip.run(7L * images - 1);
+
+            assertArrayEquals(d0.copyBBuffer(), d1.copyBBuffer());
+            assertEquals(d0Chip.getRegisters().f(), d1Chip.getRegisters().f());
+            assertEquals(d0.contentHash(), d1.contentHash());
+        }
+    }
+
+    /**
+     * Loads Rx and Ry with the position and runs the code from 0x0007.
+     * The sprite has a set diagonal from the top left to the bottom right
+     * and a set border pixel at the start of every row.
+     */
+    static LoChip newChip(byte[] code, FrameBuffer frameBuffer, int x, int y) {
+        byte[] rom = new byte[0x0220];
+        rom[0] = 0x00;
+        rom[1] = 0x03;
+        rom[3] = 0x60;                              // LD Rx, x
+        rom[4] = (byte) x;
+        rom[5] = 0x61;                              // LD Ry, y
+        rom[6] = (byte) y;
+        System.arraycopy(code, 0, rom, 7, code.length);
+        for (int row = 0; row < 16; row++) {
+            int bits = 0x8000 | (0x8000 >>> row);
+            rom[SPRITE + 2 * row] = (byte) (bits >>> 8);
+            rom[SPRITE + 2 * row + 1] = (byte) bits;
+            rom[LEFT_HALF + row] = (byte) (bits >>> 8);
+            rom[RIGHT_HALF + row] = (byte) bits;
+        }
+
+        LoChip chip = new LoChip(new Program(rom), frameBuffer, new Keyboard());
+        chip.setVerbose(false);
+        chip.run(2);
+        return chip;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class StateHashTest {
+
+    @Test
+    void memoryHashDependsOnContentOnly() {
+        Memory a = new Memory();
+        Memory b = new Memory();
+        assertEquals(0, a.contentHash());
+
+        a.write((short) 0x1234, (byte) 7);
+        a.write((short) 0xFFFF, (byte) 1);
+        b.write((short) 0xFFFF, (byte) 9);
+        b.write((short) 0x1234, (byte) 7);
+        assertNotEquals(a.contentHash(), b.contentHash());
+
+        b.write((short) 0xFFFF, (byte) 1);
+        assertEquals(a.contentHash(), b.contentHash());
+
+        a.write((short) 0x1234, (byte) 0);
+        a.write((short) 0xFFFF, (byte) 0);
+        assertEquals(0, a.contentHash());
+    }
+
+    @Test
+    void pixelHashFollowsSprites() {
+        FrameBuffer buffer = new FrameBuffer(70, 8);
+        byte[] sprite = { (byte) 0xFF, (byte) 0x81 };
+
+        buffer.setSprite(sprite, 2, (byte) 60, (byte) 3);
+        long drawn = buffer.contentHash();
+        assertNotEquals(0, drawn);
+
+        FrameBuffer other = new FrameBuffer(70, 8);
+        for (int x = 60; x < 68; x++)
+            other.setPixel(x, 3, (byte) 1);
+        other.setPixel(60, 4, (byte) 1);
+        other.setPixel(67, 4, (byte) 1);
+        assertEquals(drawn, other.contentHash());
+
+        buffer.setSprite(sprite, 2, (byte) 60, (byte) 3);
+        assertEquals(0, buffer.contentHash());
+    }
+
+    @Test
+    void chipHashMatchesSameState() {
+        byte[] rom = {
+                (byte) 0x00, (byte) 0x03,               // reset vector
+                (byte) 0x00,
+                (byte) 0x60, (byte) 0x05,               // 0x03: LD Rx, 5
+                (byte) 0xA0, (byte) 0x01, (byte) 0x00,  // 0x05: LD I, 0x0100
+                (byte) 0xFD,                            // 0x08: LD I, Rx, Ry
+                (byte) 0xAA                             // 0x09: EXIT
+        };
+        LoChip a = new LoChip(new Program(rom), new FrameBuffer(), new Keyboard());
+        LoChip b = new LoChip(new Program(rom), new FrameBuffer(), new Keyboard());
+        a.setVerbose(false);
+        b.setVerbose(false);
+        assertEquals(a.stateHash(), b.stateHash());
+
+        Snapshot start = a.snapshot();
+        a.run(3);
+        assertNotEquals(start.stateHash(), a.stateHash());
+        b.run(3);
+        assertEquals(a.stateHash(), b.stateHash());
+
+        a.restore(start);
+        assertEquals(start.stateHash(), a.stateHash());
+        a.run(3);
+        assertEquals(b.stateHash(), a.stateHash());
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SuperinstructionTest {
+
+    private static final String[] CORPUS = {
+            "16b-addFunction.bin", "JmpSrt.bin", "simple-program.bin", "MilliInst.bin"
+    };
+
+    /** Fusions that fire in the first 1000 instructions of each corpus ROM. */
+    private static final Map<String, Set<String>> EXPECTED_FUSIONS = Map.of(
+            "16b-addFunction.bin", Set.of("$60 $61 ", "$60 $61 $A0 ", "$84 $A0 ", "$A0 $FD "),
+            "JmpSrt.bin", Set.of(),
+            "simple-program.bin", Set.of(),
+            "MilliInst.bin", Set.of()
+    );
+
+    /** Increments a 16-bit counter at 0x0100 until it wraps. */
+    static final byte[] COUNTER_LOOP = {
+            (byte) 0x00, (byte) 0x03,               // reset vector
+            (byte) 0x00,
+            (byte) 0xA0, (byte) 0x01, (byte) 0x00,  // 0x03: LD I, 0x0100
+            (byte) 0x62,                            //       LD Rx, I
+            (byte) 0x61, (byte) 0x01,               //       LD Ry, 1
+            (byte) 0x84,                            //       ADD Rx, Ry
+            (byte) 0x64,                            //       LD I, Rx
+            (byte) 0xA0, (byte) 0x00, (byte) 0x03,  //       LD I, 0x0003
+            (byte) 0x31, (byte) 0x00,               //       JNE Rx, 0
+            (byte) 0xA0, (byte) 0x01, (byte) 0x01,  //       LD I, 0x0101
+            (byte) 0x62,                            //       LD Rx, I
+            (byte) 0x61, (byte) 0x01,               //       LD Ry, 1
+            (byte) 0x84,                            //       ADD Rx, Ry
+            (byte) 0x64,                            //       LD I, Rx
+            (byte) 0xA0, (byte) 0x00, (byte) 0x03,  //       LD I, 0x0003
+            (byte) 0x31, (byte) 0x00,               //       JNE Rx, 0
+            (byte) 0xAA                             //       EXIT
+    };
+
+    String binPath;
+
+    SuperinstructionTest() {
+        File file = new File("src/test/resources");
+        binPath = file.getAbsolutePath() + File.separator + "bin" + File.separator;
+    }
+
+    @Test
+    void sameResultOnCorpus() {
+        for (String rom : CORPUS) {
+            Program program = new Program(binPath + rom);
+            LoChip plain = runProgram(program, false, 1000);
+            LoChip fused = runProgram(program, true, 1000);
+            assertArrayEquals(plain.dumpMemory(), fused.dumpMemory());
+            assertEquals(plain.getRegisters(), fused.getRegisters());
+        }
+    }
+
+    @Test
+    void expectedFusionsFireOnCorpus() {
+        for (String rom : CORPUS) {
+            Set<String> fired = new HashSet<>();
+            for (Fusion fusion : runProgram(new Program(binPath + rom), true, 1000).getFusions()) {
+                if (fusion.getFired() == 0)
+                    continue;
+                StringBuilder opcodes = new StringBuilder();
+                for (int op : fusion.getOpcodes())
+                    opcodes.append(String.format("$%02X ", op));
+                fired.add(opcodes.toString());
+            }
+            assertEquals(EXPECTED_FUSIONS.get(rom), fired, rom);
+        }
+    }
+
+    @Test
+    void budgetIsExact() {
+        Program program = new Program(COUNTER_LOOP);
+        for (int budget = 1; budget < 40; budget++) {
+            LoChip plain = runProgram(program, false, budget);
+            LoChip fused = runProgram(program, true, budget);
+            assertEquals(plain.getRegisters(), fused.getRegisters());
+        }
+    }
+
+    @Test
+    void fusionsFire() {
+        LoChip chip = new LoChip(new Program(COUNTER_LOOP), new FrameBuffer(256, 144), new Keyboard());
+        assertEquals(65536 * 7 + 256 * 7 + 1, chip.run(Long.MAX_VALUE));
+
+        assertFalse(chip.getFusions().isEmpty());
+        long fired = 0;
+        for (Fusion fusion : chip.getFusions())
+            fired += fusion.getFired();
+        assertTrue(fired > 0);
+    }
+
+    static LoChip runProgram(Program program, boolean fusion, long instructions) {
+        LoChip chip = new LoChip(new Program(new byte[0]), new FrameBuffer(256, 144), new Keyboard());
+        chip.setFusionEnabled(fusion);
+        chip.loadProgram(program);
+        chip.run(instructions);
+        return chip;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VectorEnvironmentTest {
+
+    /** Waits for a key and sets the pixel (key, 0). */
+    private static final byte[] ROM = new byte[0x21];
+
+    static {
+        byte[] code = {
+                (byte) 0x00, (byte) 0x03,               // reset vector
+                (byte) 0x00,
+                (byte) 0xF2,                            // 0x03: LD Rx, K
+                (byte) 0x61, (byte) 0x00,               // 0x04: LD Ry, 0
+                (byte) 0xA0, (byte) 0x00, (byte) 0x20,  // 0x06: LD I, 0x0020
+                (byte) 0xD0, (byte) 0x01,               // 0x09: DRW Rx, Ry, 1
+                (byte) 0xAA                             // 0x0B: EXIT
+        };
+        System.arraycopy(code, 0, ROM, 0, code.length);
+        ROM[0x20] = (byte) 0x80;
+    }
+
+    @Test
+    void stepsInstancesWithTheirOwnKeys() {
+        VectorEnvironment env = new VectorEnvironment(new Program(ROM), 3, 64, 32,
+                1000, ForkJoinPool.commonPool());
+        assertEquals(32 * Long.BYTES, env.frameBytes());
+
+        env.step(new int[] { 1 << 3, 0, 1 << 9 });
+        assertTrue(env.isDone(0));
+        assertFalse(env.isDone(1));
+        assertTrue(env.isDone(2));
+
+        ByteBuffer all = env.observations();
+        assertEquals(1L << 3, all.getLong(0));
+        assertEquals(0L, all.getLong(env.frameBytes()));
+        assertEquals(1L << 9, all.getLong(2 * env.frameBytes()));
+
+        env.step(new int[] { 0, 1 << 5, 0 });
+        assertTrue(env.isDone(1));
+        assertEquals(1L << 5, env.observation(1).getLong(0));
+        assertEquals(1L << 3, env.observation(0).getLong(0));
+    }
+
+    @Test
+    void waitingInstanceUsesOneFrame() {
+        VectorEnvironment env = new VectorEnvironment(new Program(ROM), 1, 64, 32,
+                1000, ForkJoinPool.commonPool());
+        for (int i = 0; i < 10; i++)
+            env.step(new int[] { 0 });
+        assertFalse(env.isDone(0));
+        assertEquals(0x0003, env.getChip(0).getProgramCounter());
+
+        env.reset(0);
+        env.step(new int[] { 1 });
+        assertTrue(env.isDone(0));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.emulator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WatchdogTest {
+
+    private static final long BUDGET = 10_000_000;
+
+    /** Counts Rx up forever. */
+    private static final byte[] SPIN = {
+            (byte) 0x00, (byte) 0x03,               // reset vector
+            (byte) 0x00,
+            (byte) 0x70, (byte) 0x01,               // 0x03: ADD Rx, 1
+            (byte) 0x10, (byte) 0x00, (byte) 0x03   // 0x05: JP 0x0003
+    };
+
+    /** Waits for 30 ticks of the delay timer, then exits. */
+    private static final byte[] DELAY = {
+            (byte) 0x00, (byte) 0x03,               // reset vector
+            (byte) 0x00,
+            (byte) 0x60, (byte) 0x1E,               // 0x03: LD Rx, 30
+            (byte) 0xF3,                            // 0x05: LD DT, Rx
+            (byte) 0xA0, (byte) 0x00, (byte) 0x09,  // 0x06: LD I, 0x0009
+            (byte) 0xF1,                            // 0x09: LD Rx, DT
+            (byte) 0x31, (byte) 0x00,               // 0x0A: JNE Rx, 0
+            (byte) 0xAA                             // 0x0C: EXIT
+    };
+
+    /** Draws random numbers forever. */
+    private static final byte[] RANDOM = {
+            (byte) 0x00, (byte) 0x03,               // reset vector
+            (byte) 0x00,
+            (byte) 0xC0, (byte) 0xFF,               // 0x03: RND Rx, 0xFF
+            (byte) 0x10, (byte) 0x00, (byte) 0x03   // 0x05: JP 0x0003
+    };
+
+    /** Loads constants forever, the fused loads run in real time. */
+    private static final byte[] LOADS = {
+            (byte) 0x00, (byte) 0x03,               // reset vector
+            (byte) 0x00,
+            (byte) 0x60, (byte) 0x01,               // 0x03: LD Rx, 1
+            (byte) 0x61, (byte) 0x02,               // 0x05: LD Ry, 2
+            (byte) 0x60, (byte) 0x01,               // 0x07: LD Rx, 1
+            (byte) 0x61, (byte) 0x02,               // 0x09: LD Ry, 2
+            (byte) 0x10, (byte) 0x00, (byte) 0x03   // 0x0B: JP 0x0003
+    };
+
+    private static LoChip newChip(byte[] rom, Watchdog watchdog) {
+        LoChip chip = new LoChip(new Program(rom), new FrameBuffer(), new Keyboard());
+        chip.setVerbose(false);
+        chip.setVirtualTime(1000);
+        chip.setWatchdog(watchdog);
+        return chip;
+    }
+
+    @Test
+    void stopsEndlessLoop() {
+        Watchdog watchdog = new Watchdog();
+        RunResult result = newChip(SPIN, watchdog).runFor(BUDGET);
+
+        assertEquals(RunResult.Reason.HUNG, result.reason());
+        assertTrue(result.instructions() < 1_000_000, "ran " + result.instructions());
+        Watchdog.Hang hang = watchdog.getVerdict();
+        assertTrue(hang.address() == 0x03 || hang.address() == 0x05);
+        // 256 iterations of 2 instructions, sampled every 1000 instructions
+        assertEquals(64_000, hang.period());
+    }
+
+    @Test
+    void stopsEndlessLoopInRealTime() {
+        Watchdog watchdog = new Watchdog(1, 2);
+        LoChip chip = new LoChip(new Program(LOADS), new FrameBuffer(), new Keyboard());
+        chip.setVerbose(false);
+        chip.setWatchdog(watchdog);
+        RunResult result = chip.runFor(BUDGET);
+
+        assertEquals(RunResult.Reason.HUNG, result.reason());
+        assertTrue(chip.getFusions().stream().anyMatch(f -> f.getFired() > 0), "nothing fused");
+    }
+
+    @Test
+    void thresholdDelaysVerdict() {
+        Watchdog first = new Watchdog(1, 1);
+        Watchdog third = new Watchdog(1, 3);
+        long early = newChip(SPIN, first).runFor(BUDGET).instructions();
+        long late = newChip(SPIN, third).runFor(BUDGET).instructions();
+
+        assertEquals(early + 2 * 64_000, late);
+    }
+
+    @Test
+    void timersAreProgress() {
+        Watchdog watchdog = new Watchdog(1, 1);
+        LoChip chip = newChip(DELAY, watchdog);
+
+        assertEquals(RunResult.Reason.EXIT, chip.runFor(BUDGET).reason());
+        assertNull(watchdog.getVerdict());
+    }
+
+    @Test
+    void randomIsNotAHang() {
+        Watchdog watchdog = new Watchdog(1, 1);
+        assertEquals(RunResult.Reason.BUDGET, newChip(RANDOM, watchdog).runFor(1_000_000).reason());
+        assertNull(watchdog.getVerdict());
+    }
+
+    @Test
+    void restartsWithEveryRun() {
+        Watchdog watchdog = new Watchdog();
+        LoChip chip = newChip(SPIN, watchdog);
+        assertEquals(RunResult.Reason.HUNG, chip.runFor(BUDGET).reason());
+        assertEquals(RunResult.Reason.BUDGET, chip.runFor(10_000).reason());
+        assertNull(watchdog.getVerdict());
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.remote;
+
+import de.loisel.chip.emulator.FrameBuffer;
+import de.loisel.chip.emulator.Keyboard;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RemoteServerTest {
+
+    private final FrameBuffer frameBuffer = new FrameBuffer();
+    private final Keyboard keyboard = new Keyboard();
+    private final RemoteServer server;
+    private final Thread serverThread;
+
+    RemoteServerTest() throws IOException {
+        server = new RemoteServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.addSession(new RemoteSession(7, frameBuffer, keyboard));
+        serverThread = new Thread(server, "Remote Server");
+        serverThread.start();
+    }
+
+    @AfterEach
+    void shutdown() throws Exception {
+        server.close();
+        serverThread.join(1000);
+    }
+
+    @Test
+    void deltaRoundTrip() {
+        byte[] reference = new byte[600];
+        byte[] frame = new byte[600];
+        frame[0] = 1;
+        frame[300] = (byte) 0x80;
+        frame[599] = 0x7F;
+
+        ByteBuffer out = ByteBuffer.allocate(FrameCodec.maxFrameSize(frame.length));
+        FrameCodec.encodeDelta(frame, reference, out);
+        out.flip();
+
+        byte[] decoded = new byte[600];
+        FrameCodec.applyDelta(out, out.remaining(), decoded);
+        assertArrayEquals(frame, decoded);
+    }
+
+    @Test
+    void streamsFrameUpdates() throws IOException {
+        try (RemoteClient client = connect()) {
+            assertEquals(64, client.getWidth());
+            assertEquals(32, client.getHeight());
+            client.receiveFrame();
+            assertFalse(client.getPixel(5, 9));
+
+            frameBuffer.setPixel(5, 9);
+            while (!client.getPixel(5, 9))
+                client.receiveFrame();
+
+            frameBuffer.setPixel(5, 9);
+            frameBuffer.setPixel(63, 31);
+            while (client.getPixel(5, 9))
+                client.receiveFrame();
+            assertTrue(client.getPixel(63, 31));
+        }
+    }
+
+    @Test
+    void mapsKeyPackets() throws Exception {
+        try (RemoteClient client = connect()) {
+            client.pressKey((byte) 0xA);
+            waitFor(true);
+            client.releaseKey((byte) 0xA);
+            waitFor(false);
+        }
+    }
+
+    @Test
+    void removedSessionDisconnectsClients() throws IOException {
+        try (RemoteClient client = connect()) {
+            client.receiveFrame();
+            server.removeSession(7);
+            assertTimeoutPreemptively(Duration.ofSeconds(2),
+                    () -> { assertThrows(EOFException.class, client::receiveFrame); });
+        }
+    }
+
+    private RemoteClient connect() throws IOException {
+        return new RemoteClient(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()), 7);
+    }
+
+    private void waitFor(boolean down) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (keyboard.isDown((byte) 0xA) != down && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertEquals(down, keyboard.isDown((byte) 0xA));
+    }
+}
@@ -20,12 +20,16 @@ import de.loisel.chip.emulator.*;
 import processing.core.PApplet;
 
 public class Application extends PApplet {
-    private static FrameBuffer frameBuffer;
+    private static FramePublisher framePublisher;
     private static Keyboard keyboard;
+    private static LoChip chip;
 
     private static final int WIDTH = 1920;
     private static final int HEIGHT = 960;
     private static final int FADE_LEN = 7;
+    private static final String TITLE = "Chip8 by loisel";
+    private static final double MIN_SPEED = 1 / 16.0;
+    private static final double MAX_SPEED = 64;
 
     long lastCount = 0;
     int fCounter = 0;
@@ -40,13 +44,33 @@ public class Application extends PApplet {
     @Override
     public void setup() {
         frameRate(60);
+        showSpeed();
         noStroke();
         background(0);
     }
 
     @Override
     public void keyPressed() {
-        setKey(key, true);
+        switch (key) {
+            case '+' -> setSpeed(chip.getSpeed() * 2);
+            case '-' -> setSpeed(chip.getSpeed() / 2);
+            case '=' -> setSpeed(1);
+            default -> setKey(key, true);
+        }
+    }
+
+    private void setSpeed(double speed) {
+        chip.setSpeed(clampSpeed(speed));
+        showSpeed();
+    }
+
+    private void showSpeed() {
+        double speed = Math.round(chip.getSpeed() * 100) / 100.0;
+        surface.setTitle(speed == 1 ? TITLE : TITLE + " - " + speed + "x");
+    }
+
+    private static double clampSpeed(double speed) {
+        return Math.max(MIN_SPEED, Math.min(MAX_SPEED, speed));
     }
 
     @Override
@@ -84,7 +108,12 @@ public class Application extends PApplet {
 
     @Override
     public void draw() {
-        boolean[][] image = frameBuffer.copyBuffer();
+        // only the latest frame is drawn, the chip never waits for the display
+        FramePublisher.Frame frame = framePublisher.latest();
+        boolean[][] image = new boolean[frame.getWidth()][frame.getHeight()];
+        for(int x = 0; x < image.length; x++)
+            for(int y = 0; y < image[0].length; y++)
+                image[x][y] = frame.isSet(x, y);
         if(pixelFade == null)
             pixelFade = new int[image.length][image[0].length];
 
@@ -140,15 +169,19 @@ public class Application extends PApplet {
             throw new RuntimeException("No arguments found. Cannot load program!");
         }
 
-        frameBuffer = new FrameBuffer(256, 144);
+        FrameBuffer frameBuffer = new FrameBuffer(256, 144);
+        framePublisher = new FramePublisher(frameBuffer);
         Program program = new Program(args[0]);
         keyboard = new Keyboard();
 
-        LoChip chip = new LoChip(program, frameBuffer, keyboard);
+        chip = new LoChip(program, frameBuffer, keyboard);
+        chip.setFramePublisher(framePublisher);
+        if (args.length > 1)
+            chip.setSpeed(clampSpeed(Double.parseDouble(args[1])));
 
         ChipAudio audio = new ChipAudio(chip);
 
-        String[] appletArgs = new String[] { "Chip8 by loisel" };
+        String[] appletArgs = new String[] { TITLE };
         PApplet.runSketch(appletArgs, new Application());
 
         sleep(1000); // wait a little for processing to start up